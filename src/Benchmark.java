@@ -0,0 +1,378 @@
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Benchmark times the parts of the program that matter for speed: parsing
+ * each data file, snapping a click to the nearest node, finding routes,
+ * applying live traffic (and finding routes while it keeps changing), and
+ * drawing the map. Run it as
+ *
+ * <pre>
+ * java Benchmark data/small data/large [--filter text] [--out results.csv|results.json] [--compare old.csv]
+ * </pre>
+ *
+ * Each benchmark is warmed up for a few iterations so the JIT has compiled
+ * it, then measured for a few more. Its score is the mean time per operation
+ * over the measured iterations, with the 99.9% confidence half-width as the
+ * error. Inputs like the route endpoints and click points come from a fixed
+ * seed, so runs on different versions of the program do the same work. The
+ * results can be written as CSV or JSON, and compared against an earlier
+ * CSV, to spot regressions between versions.
+ */
+public class Benchmark {
+	public static final int DEFAULT_WARMUP = 3, DEFAULT_ITERATIONS = 5;
+	public static final long DEFAULT_ITERATION_MS = 1000;
+	private static final long SEED = 20240101;
+	// how many route pairs and click points each benchmark cycles through.
+	private static final int INPUTS = 256;
+	private static final int[] DRAW_SCALES = { 2, 10, 40, 150 };
+	// edges in each traffic update, and how often they come while searches
+	// are timed under churn.
+	private static final int TRAFFIC_BATCH = 1000;
+	private static final long TRAFFIC_PERIOD_MS = 50;
+	private static final Dimension SCREEN = new Dimension(1024, 768);
+	// z for a two-sided 99.9% interval. The iterations aren't many, but the
+	// normal approximation is close enough to tell a regression from noise.
+	private static final double Z = 3.29;
+	// a score has to be this much worse, beyond both errors, to be flagged.
+	private static final double REGRESSION = 0.05;
+
+	private final int warmup, iterations;
+	private final long iterationNanos;
+	private final String filter;
+	private final List<Result> results = new ArrayList<>();
+
+	// every operation's result is added in here, so the JIT can't decide the
+	// work is unused and skip it.
+	private static volatile long sink;
+
+	public static class Result {
+		public final String benchmark, dataset;
+		public final int samples;
+		// microseconds per operation.
+		public final double score, error;
+
+		Result(String benchmark, String dataset, int samples, double score, double error) {
+			this.benchmark = benchmark;
+			this.dataset = dataset;
+			this.samples = samples;
+			this.score = score;
+			this.error = error;
+		}
+
+		String key() {
+			return benchmark + " " + dataset;
+		}
+	}
+
+	public Benchmark(int warmup, int iterations, long iterationMs, String filter) {
+		this.warmup = warmup;
+		this.iterations = iterations;
+		this.iterationNanos = iterationMs * 1_000_000;
+		this.filter = filter;
+	}
+
+	/**
+	 * Runs every benchmark that applies to the data directory. Parsing is
+	 * timed for whichever files it has; the rest need a whole graph.
+	 */
+	public void run(File dir) {
+		String dataset = dir.getName();
+		File nodes = new File(dir, "nodeID-lat-lon.tab"), roads = new File(dir, "roadID-roadInfo.tab");
+		File segments = new File(dir, "roadSeg-roadID-length-nodeID-nodeID-coords.tab");
+		File polygons = new File(dir, "polygon-shapes.mp");
+
+		if (nodes.exists()) measure("parseNodes", dataset, i -> Parser.parseNodes(nodes, null).size());
+		if (roads.exists()) measure("parseRoads", dataset, i -> Parser.parseRoads(roads, null).size());
+		if (polygons.exists()) measure("parsePolygons", dataset, i -> Parser.parsePolygons(polygons, null).size());
+		if (!nodes.exists() || !roads.exists() || !segments.exists()) return;
+
+		// making Segments links them into their Nodes and Roads, so each
+		// parse gets fresh ones, made outside the timing.
+		Graph[] scratch = new Graph[1];
+		measure("parseSegments", dataset, () -> {
+			scratch[0] = new Graph(Parser.parseNodes(nodes, null), Parser.parseRoads(roads, null),
+					Collections.emptyList(), new HashMap<>());
+		}, i -> Parser.parseSegments(segments, scratch[0]).size());
+		scratch[0] = null;
+
+		Graph graph;
+		try {
+			graph = Graph.fromDirectory(dir);
+		} catch (IOException e) {
+			System.err.println("could not load " + dir + ": " + e.getMessage());
+			return;
+		}
+		RoutingGraph routing = graph.routing;
+		Random random = new Random(SEED);
+
+		// clicks spread over the map, at a view of all of it, going through
+		// the same conversion Mapper.onClick does.
+		double[] bounds = bounds(routing);
+		double scale = Math.min(SCREEN.width / (bounds[2] - bounds[0]), SCREEN.height / (bounds[3] - bounds[1]));
+		Location origin = new Location(bounds[0], bounds[3]);
+		Point[] clicks = new Point[INPUTS];
+		for (int i = 0; i < INPUTS; i++)
+			clicks[i] = new Point(random.nextInt(SCREEN.width), random.nextInt(SCREEN.height));
+		measure("nearestNode", dataset,
+				i -> graph.findNearest(Location.newFromPoint(clicks[i % INPUTS], origin, scale)).nodeID);
+
+		// a new RouteFinder, so the hierarchy and landmarks are built during
+		// the warmup rather than before it.
+		RouteFinder finder = new RouteFinder(routing);
+		int[] starts = new int[INPUTS], goals = new int[INPUTS];
+		for (int i = 0; i < INPUTS; i++) {
+			starts[i] = random.nextInt(routing.size());
+			goals[i] = random.nextInt(routing.size());
+		}
+		for (boolean isTime : new boolean[] { false, true }) {
+			for (SearchMode mode : SearchMode.values()) {
+				String name = "findRoute." + (isTime ? "time" : "distance") + "." + mode.name().toLowerCase(Locale.ROOT);
+				measure(name, dataset, i -> finder.findRoute(starts[i % INPUTS], goals[i % INPUTS], isTime, mode).settled);
+			}
+		}
+		// time-dependent A*, to set against findRoute.time.astar: at 8:00, in
+		// the morning peak, and at 3:00, when every road flows freely.
+		for (int hour : new int[] { 8, 3 }) {
+			measure("findRoute.timeDependent.astar.at" + hour, dataset,
+					i -> finder.findRoute(starts[i % INPUTS], goals[i % INPUTS], (double) hour).settled);
+		}
+
+		// live traffic: publishing a batch of speeds, customizing the time
+		// hierarchy to it, and searching while batches keep arriving.
+		TrafficLayer traffic = new TrafficLayer(routing);
+		int m = routing.edgeCount();
+		TrafficLayer.Batch[] batches = new TrafficLayer.Batch[16];
+		for (int b = 0; b < batches.length; b++) {
+			batches[b] = new TrafficLayer.Batch();
+			for (int k = 0; k < TRAFFIC_BATCH; k++)
+				batches[b].add(random.nextInt(m), 5 + random.nextInt(60));
+		}
+		measure("traffic.update", dataset, i -> traffic.apply(batches[i % batches.length], false).version);
+		ContractionHierarchy ch = finder.hierarchy(true);
+		EdgeWeights congested = traffic.current();
+		measure("traffic.customize", dataset, i -> ch.customize(congested).shortcutCount());
+
+		RouteFinder churned = new RouteFinder(routing);
+		churned.hierarchy(true);
+		traffic.addListener(churned::setWeights);
+		Thread feed = new Thread(() -> {
+			for (int b = 0; !Thread.currentThread().isInterrupted(); b++) {
+				traffic.apply(batches[b % batches.length], false);
+				try {
+					Thread.sleep(TRAFFIC_PERIOD_MS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "benchmark traffic");
+		feed.setDaemon(true);
+		feed.start();
+		for (SearchMode mode : new SearchMode[] { SearchMode.ASTAR, SearchMode.HIERARCHY }) {
+			String name = "findRoute.time." + mode.name().toLowerCase(Locale.ROOT) + ".churn";
+			measure(name, dataset, i -> churned.findRoute(starts[i % INPUTS], goals[i % INPUTS], true, mode).settled);
+		}
+		feed.interrupt();
+
+		// the whole map drawn straight into an image, without the tiles, at
+		// zooms from all of it on screen to a few streets.
+		BufferedImage image = new BufferedImage(SCREEN.width, SCREEN.height, BufferedImage.TYPE_INT_RGB);
+		double centreX = (bounds[0] + bounds[2]) / 2, centreY = (bounds[1] + bounds[3]) / 2;
+		for (int drawScale : DRAW_SCALES) {
+			Location view = new Location(centreX - SCREEN.width / 2.0 / drawScale, centreY + SCREEN.height / 2.0 / drawScale);
+			measure("draw.scale" + drawScale, dataset, i -> {
+				Graphics2D g = image.createGraphics();
+				try {
+					g.clearRect(0, 0, SCREEN.width, SCREEN.height);
+					graph.draw(g, SCREEN, view, drawScale);
+				} finally {
+					g.dispose();
+				}
+				return image.getRGB(SCREEN.width / 2, SCREEN.height / 2);
+			});
+		}
+	}
+
+	private void measure(String name, String dataset, IntToLongFunction op) {
+		measure(name, dataset, null, op);
+	}
+
+	/**
+	 * Times op, which is passed a count of the operations so far to pick its
+	 * input with. If there's a setup, it's run before every operation,
+	 * untimed, and each operation is timed on its own. Otherwise operations
+	 * are timed in batches, so fast ones aren't swamped by reading the clock.
+	 */
+	private void measure(String name, String dataset, Runnable setup, IntToLongFunction op) {
+		if (filter != null && !(name + " " + dataset).contains(filter)) return;
+		double[] samples = new double[iterations];
+		int count = 0;
+		for (int it = 0; it < warmup + iterations; it++) {
+			long ops = 0, elapsed = 0;
+			int batch = 1;
+			while (elapsed < iterationNanos) {
+				if (setup != null) setup.run();
+				long t0 = System.nanoTime();
+				long sum = 0;
+				for (int k = 0; k < batch; k++)
+					sum += op.applyAsLong(count++);
+				long t = System.nanoTime() - t0;
+				sink += sum;
+				elapsed += t;
+				ops += batch;
+				// grow batches until each takes a millisecond or so.
+				if (setup == null && t < 1_000_000) batch *= 2;
+			}
+			if (it >= warmup) samples[it - warmup] = elapsed / 1e3 / ops;
+		}
+
+		double mean = 0;
+		for (double s : samples)
+			mean += s;
+		mean /= samples.length;
+		double variance = 0;
+		for (double s : samples)
+			variance += (s - mean) * (s - mean);
+		double error = samples.length > 1 ? Z * Math.sqrt(variance / (samples.length - 1) / samples.length) : Double.NaN;
+		Result result = new Result(name, dataset, samples.length, mean, error);
+		results.add(result);
+		System.out.printf(Locale.ROOT, "%-32s %-8s %14.3f +- %10.3f us/op%n", name, dataset, mean, error);
+	}
+
+	public List<Result> results() {
+		return results;
+	}
+
+	/**
+	 * @return the bounding box of the nodes, as x0, y0, x1, y1.
+	 */
+	private static double[] bounds(RoutingGraph routing) {
+		double[] bounds = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (int v = 0; v < routing.size(); v++) {
+			bounds[0] = Math.min(bounds[0], routing.x[v]);
+			bounds[1] = Math.min(bounds[1], routing.y[v]);
+			bounds[2] = Math.max(bounds[2], routing.x[v]);
+			bounds[3] = Math.max(bounds[3], routing.y[v]);
+		}
+		return bounds;
+	}
+
+	public void writeCsv(File file) throws IOException {
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("\"Benchmark\",\"Dataset\",\"Samples\",\"Score\",\"Error (99.9%)\",\"Unit\"");
+			for (Result r : results)
+				out.printf(Locale.ROOT, "\"%s\",\"%s\",%d,%.6f,%.6f,\"us/op\"%n", r.benchmark, r.dataset, r.samples,
+						r.score, r.error);
+		}
+	}
+
+	public void writeJson(File file) throws IOException {
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("[");
+			for (int i = 0; i < results.size(); i++) {
+				Result r = results.get(i);
+				out.printf(Locale.ROOT,
+						"  {\"benchmark\":\"%s\",\"dataset\":\"%s\",\"samples\":%d,\"score\":%.6f,\"error\":%.6f,\"unit\":\"us/op\"}%s%n",
+						r.benchmark, r.dataset, r.samples, r.score, Double.isNaN(r.error) ? 0 : r.error,
+						i + 1 < results.size() ? "," : "");
+			}
+			out.println("]");
+		}
+	}
+
+	/**
+	 * Reads results written by writeCsv.
+	 */
+	public static List<Result> readCsv(File file) throws IOException {
+		List<Result> read = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			in.readLine(); // header
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.replace("\"", "").split(",");
+				if (fields.length < 5) continue;
+				read.add(new Result(fields[0], fields[1], Integer.parseInt(fields[2]), Double.parseDouble(fields[3]),
+						Double.parseDouble(fields[4])));
+			}
+		}
+		return read;
+	}
+
+	/**
+	 * Prints how each result compares to the same benchmark in a baseline,
+	 * flagging the ones that are slower by more than the noise.
+	 *
+	 * @return the number of regressions.
+	 */
+	public int compare(List<Result> baseline) {
+		Map<String, Result> old = new HashMap<>();
+		for (Result r : baseline)
+			old.put(r.key(), r);
+		int regressions = 0;
+		System.out.println();
+		for (Result r : results) {
+			Result b = old.get(r.key());
+			if (b == null) continue;
+			double errors = (Double.isNaN(r.error) ? 0 : r.error) + (Double.isNaN(b.error) ? 0 : b.error);
+			String verdict = "";
+			if (r.score - errors > b.score * (1 + REGRESSION)) {
+				verdict = "  REGRESSION";
+				regressions++;
+			} else if (r.score + errors < b.score * (1 - REGRESSION)) {
+				verdict = "  faster";
+			}
+			System.out.printf(Locale.ROOT, "%-32s %-8s %14.3f -> %14.3f us/op  %+7.1f%%%s%n", r.benchmark, r.dataset,
+					b.score, r.score, 100 * (r.score / b.score - 1), verdict);
+		}
+		return regressions;
+	}
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		List<File> dirs = new ArrayList<>();
+		int warmup = DEFAULT_WARMUP, iterations = DEFAULT_ITERATIONS;
+		long iterationMs = DEFAULT_ITERATION_MS;
+		String filter = null;
+		File out = null, baseline = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--warmup") && i + 1 < args.length) warmup = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--iterations") && i + 1 < args.length) iterations = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--time") && i + 1 < args.length) iterationMs = Long.parseLong(args[++i]);
+			else if (args[i].equals("--filter") && i + 1 < args.length) filter = args[++i];
+			else if (args[i].equals("--out") && i + 1 < args.length) out = new File(args[++i]);
+			else if (args[i].equals("--compare") && i + 1 < args.length) baseline = new File(args[++i]);
+			else dirs.add(new File(args[i]));
+		}
+		if (dirs.isEmpty() || iterations < 1) {
+			System.err.println("usage: java Benchmark <data directory>... [--filter text] [--warmup n] [--iterations n]"
+					+ " [--time ms] [--out results.csv|results.json] [--compare old.csv]");
+			System.exit(1);
+		}
+
+		Benchmark benchmark = new Benchmark(warmup, iterations, iterationMs, filter);
+		for (File dir : dirs)
+			benchmark.run(dir);
+
+		if (out != null) {
+			if (out.getName().endsWith(".json")) benchmark.writeJson(out);
+			else benchmark.writeCsv(out);
+			System.out.println("wrote " + out);
+		}
+		if (baseline != null && benchmark.compare(readCsv(baseline)) > 0) System.exit(2);
+	}
+}
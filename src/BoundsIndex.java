@@ -0,0 +1,100 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * BoundsIndex is a uniform grid over a list of bounding boxes, for finding
+ * the ones that overlap a window without looking at the rest. Each box is
+ * listed in every cell it overlaps, and a query only reports it from the
+ * first of those cells inside the window, so nothing needs to be remembered
+ * between cells and any number of threads can query at once.
+ */
+public class BoundsIndex {
+	// minX, minY, maxX, maxY of box i at [4 * i]. A box with minX > maxX is
+	// empty, and never reported.
+	private final double[] bounds;
+	private final int count;
+	private final double minX, minY, cellSize;
+	private final int cols, rows;
+	// the boxes in cell (col, row) are at [cellOffsets[c], cellOffsets[c+1])
+	// of cellBoxes, where c = row * cols + col.
+	private final int[] cellOffsets;
+	private final int[] cellBoxes;
+
+	/**
+	 * @param perCell
+	 *            roughly how many boxes should share a cell.
+	 */
+	public BoundsIndex(double[] bounds, int count, double perCell) {
+		this.bounds = bounds;
+		this.count = count;
+		double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < count; i++) {
+			if (bounds[4 * i] > bounds[4 * i + 2]) continue;
+			x0 = Math.min(x0, bounds[4 * i]);
+			y0 = Math.min(y0, bounds[4 * i + 1]);
+			x1 = Math.max(x1, bounds[4 * i + 2]);
+			y1 = Math.max(y1, bounds[4 * i + 3]);
+		}
+		if (x0 > x1) x0 = y0 = x1 = y1 = 0;
+		minX = x0;
+		minY = y0;
+		// square cells, sized so that each holds a few boxes on average if
+		// they were spread evenly.
+		double area = Math.max((x1 - x0) * (y1 - y0), 1e-9);
+		double size = Math.sqrt(area * perCell / Math.max(1, count));
+		cellSize = Math.max(size, Math.max(x1 - x0, y1 - y0) / 4096);
+		cols = (int) ((x1 - x0) / cellSize) + 1;
+		rows = (int) ((y1 - y0) / cellSize) + 1;
+
+		// counting sort of (cell, box) pairs by cell.
+		cellOffsets = new int[cols * rows + 1];
+		for (int i = 0; i < count; i++) {
+			if (bounds[4 * i] > bounds[4 * i + 2]) continue;
+			for (int r = row(bounds[4 * i + 1]); r <= row(bounds[4 * i + 3]); r++)
+				for (int c = col(bounds[4 * i]); c <= col(bounds[4 * i + 2]); c++)
+					cellOffsets[r * cols + c + 1]++;
+		}
+		for (int c = 0; c < cols * rows; c++)
+			cellOffsets[c + 1] += cellOffsets[c];
+		cellBoxes = new int[cellOffsets[cols * rows]];
+		int[] fill = Arrays.copyOf(cellOffsets, cols * rows);
+		for (int i = 0; i < count; i++) {
+			if (bounds[4 * i] > bounds[4 * i + 2]) continue;
+			for (int r = row(bounds[4 * i + 1]); r <= row(bounds[4 * i + 3]); r++)
+				for (int c = col(bounds[4 * i]); c <= col(bounds[4 * i + 2]); c++)
+					cellBoxes[fill[r * cols + c]++] = i;
+		}
+	}
+
+	/**
+	 * Passes the position of every box that overlaps the window from (x0, y0)
+	 * to (x1, y1) to action, once each.
+	 */
+	public void query(double x0, double y0, double x1, double y1, IntConsumer action) {
+		if (x0 > x1 || y0 > y1 || count == 0) return;
+		int c0 = col(x0), c1 = col(x1), r0 = row(y0), r1 = row(y1);
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				int cell = r * cols + c;
+				for (int i = cellOffsets[cell]; i < cellOffsets[cell + 1]; i++) {
+					int s = cellBoxes[i];
+					int b = 4 * s;
+					if (bounds[b] > x1 || bounds[b + 2] < x0 || bounds[b + 1] > y1 || bounds[b + 3] < y0) continue;
+					// the box is in every cell between its corners, so only
+					// report it from the first one that's also in the window.
+					if (c != Math.max(c0, col(bounds[b])) || r != Math.max(r0, row(bounds[b + 1]))) continue;
+					action.accept(s);
+				}
+			}
+		}
+	}
+
+	private int col(double x) {
+		return Math.max(0, Math.min(cols - 1, (int) Math.floor((x - minX) / cellSize)));
+	}
+
+	private int row(double y) {
+		return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - minY) / cellSize)));
+	}
+}
@@ -0,0 +1,482 @@
+import java.util.Arrays;
+
+/**
+ * ContractionHierarchy is a preprocessed form of a RoutingGraph for one metric
+ * (distance or time) that answers route queries by searching only "upward"
+ * from each end.
+ *
+ * Nodes are contracted one at a time, least important first, where importance
+ * is twice the edge difference (shortcuts added minus edges removed) plus the
+ * number of neighbours already contracted. Contracting v adds a shortcut u->w
+ * for every u->v->w that is the only cheapest way from u to w, so the
+ * distances between the remaining nodes don't change. Every shortcut remembers the two
+ * edges it replaces, so a route over shortcuts unpacks to the underlying
+ * Segments. One-way roads carry over, since contraction only ever combines
+ * edges in their direction of travel.
+ *
+ * Prohibited turns aren't part of the hierarchy; callers that care should
+ * check the unpacked route, as RouteFinder does.
+ *
+ * A hierarchy is built for one version of the edge costs. When traffic
+ * changes them, customize rebuilds it in the same order, which skips working
+ * out the order (most of the cost of a build) and only has to find the
+ * shortcuts again.
+ */
+public class ContractionHierarchy {
+	// how many nodes a witness search may settle before giving up and
+	// assuming a shortcut is needed. Missing a witness only costs an extra
+	// shortcut, never a wrong answer, so the searches that only estimate a
+	// node's priority are cut off much sooner than the ones that add them.
+	private static final int WITNESS_SETTLE_LIMIT = 1000;
+	private static final int ESTIMATE_SETTLE_LIMIT = 50;
+
+	public final RoutingGraph graph;
+	public final boolean isTime;
+	// the edge costs the hierarchy was built for.
+	public final EdgeWeights weights;
+
+	// position of each node in the contraction order, and the nodes in that
+	// order.
+	final int[] rank, order;
+
+	// every hierarchy edge: its ends and cost, and what it stands for. An
+	// original edge has first = RoutingGraph edge and second = -1, a shortcut
+	// has the two hierarchy edges it replaces.
+	final int[] from, to, first, second;
+	final double[] cost;
+
+	// edges going up in rank, listed at their lower (source) end.
+	final int[] upOffsets, upEdges;
+	// edges coming down in rank, listed at their lower (target) end, so the
+	// backward search can also only go up.
+	final int[] downOffsets, downEdges;
+
+	/**
+	 * Builds the hierarchy for the costs with no traffic. This is the
+	 * expensive part; queries are cheap.
+	 */
+	public ContractionHierarchy(RoutingGraph graph, boolean isTime) {
+		this(new EdgeWeights(graph), isTime);
+	}
+
+	/**
+	 * Builds the hierarchy for the given costs.
+	 */
+	public ContractionHierarchy(EdgeWeights weights, boolean isTime) {
+		this(weights, isTime, null);
+	}
+
+	/**
+	 * Builds the hierarchy, contracting the nodes in the given order, or if
+	 * it's null, working out an order as it goes.
+	 */
+	private ContractionHierarchy(EdgeWeights weights, boolean isTime, int[] contractionOrder) {
+		this.graph = weights.graph;
+		this.isTime = isTime;
+		this.weights = weights;
+		Builder b = new Builder(graph, weights, isTime);
+		if (contractionOrder == null) b.contractAll();
+		else b.contractInOrder(contractionOrder);
+
+		rank = b.rank;
+		order = new int[rank.length];
+		for (int v = 0; v < rank.length; v++)
+			order[rank[v]] = v;
+		int m = b.edgeCount;
+		from = Arrays.copyOf(b.from, m);
+		to = Arrays.copyOf(b.to, m);
+		first = Arrays.copyOf(b.first, m);
+		second = Arrays.copyOf(b.second, m);
+		cost = Arrays.copyOf(b.cost, m);
+
+		int n = graph.size();
+		upOffsets = new int[n + 1];
+		downOffsets = new int[n + 1];
+		for (int e = 0; e < m; e++) {
+			if (rank[from[e]] < rank[to[e]]) upOffsets[from[e] + 1]++;
+			else downOffsets[to[e] + 1]++;
+		}
+		for (int v = 0; v < n; v++) {
+			upOffsets[v + 1] += upOffsets[v];
+			downOffsets[v + 1] += downOffsets[v];
+		}
+		upEdges = new int[upOffsets[n]];
+		downEdges = new int[downOffsets[n]];
+		int[] upFill = Arrays.copyOf(upOffsets, n), downFill = Arrays.copyOf(downOffsets, n);
+		for (int e = 0; e < m; e++) {
+			if (rank[from[e]] < rank[to[e]]) upEdges[upFill[from[e]]++] = e;
+			else downEdges[downFill[to[e]]++] = e;
+		}
+	}
+
+	/**
+	 * @return a hierarchy for new costs, with the nodes contracted in the same
+	 *         order as this one. The order was chosen for the old costs, so
+	 *         the new hierarchy can need a few more shortcuts, but its routes
+	 *         are still the cheapest.
+	 */
+	public ContractionHierarchy customize(EdgeWeights newWeights) {
+		if (newWeights.graph != graph) throw new IllegalArgumentException("weights are for another graph");
+		return new ContractionHierarchy(newWeights, isTime, order);
+	}
+
+	/**
+	 * @return the number of shortcuts the hierarchy added to the graph.
+	 */
+	public int shortcutCount() {
+		int count = 0;
+		for (int e = 0; e < second.length; e++)
+			if (second[e] >= 0) count++;
+		return count;
+	}
+
+	/**
+	 * Finds the cheapest route from start to goal with an upward search from
+	 * each end. Both halves only follow edges to more important nodes, and the
+	 * cheapest route has a most important node where they meet. A half can
+	 * stop once its smallest key is no better than the best meeting found.
+	 */
+	public Route findRoute(SearchContext ctx, SearchContext reverse, int start, int goal) {
+		ctx.begin();
+		reverse.begin();
+		ctx.reach(start, 0, -1);
+		reverse.reach(goal, 0, -1);
+		ctx.fringe.push(start, 0);
+		reverse.fringe.push(goal, 0);
+
+		double best = Double.POSITIVE_INFINITY;
+		int meeting = -1;
+		IndexedHeap forward = ctx.fringe, backward = reverse.fringe;
+		while (true) {
+			boolean forwardDone = forward.peekKey() >= best;
+			boolean backwardDone = backward.peekKey() >= best;
+			if (forwardDone && backwardDone) break;
+
+			boolean isForward = !forwardDone && (backwardDone || forward.peekKey() <= backward.peekKey());
+			SearchContext self = isForward ? ctx : reverse, other = isForward ? reverse : ctx;
+			int current = self.fringe.poll();
+			self.settle(current);
+			double currentCost = self.dist(current);
+			if (currentCost + other.dist(current) < best) {
+				best = currentCost + other.dist(current);
+				meeting = current;
+			}
+
+			int[] offsets = isForward ? upOffsets : downOffsets;
+			int[] edges = isForward ? upEdges : downEdges;
+			self.relaxed += offsets[current + 1] - offsets[current];
+			for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+				int e = edges[i];
+				int next = isForward ? to[e] : from[e];
+				double costSoFar = currentCost + cost[e];
+				if (self.isSettled(next) || costSoFar >= self.dist(next)) continue;
+				self.reach(next, costSoFar, e);
+				self.fringe.push(next, costSoFar);
+			}
+		}
+
+		int settled = ctx.settledCount() + reverse.settledCount();
+		if (meeting < 0)
+			return new Route(graph, start, goal, isTime, null, Double.POSITIVE_INFINITY, settled, weights);
+
+		// unpack the forward half into the front of the edge list, then the
+		// backward half after it.
+		IntList path = new IntList();
+		for (int node = meeting; node != start; node = from[ctx.prevEdge(node)])
+			path.add(ctx.prevEdge(node));
+		path.reverse();
+		IntList edges = new IntList();
+		for (int i = 0; i < path.size; i++)
+			unpack(path.items[i], edges);
+		for (int node = meeting; node != goal; node = to[reverse.prevEdge(node)])
+			unpack(reverse.prevEdge(node), edges);
+		return new Route(graph, start, goal, isTime, edges.toArray(), best, settled, weights);
+	}
+
+	/**
+	 * Appends the RoutingGraph edges that hierarchy edge e stands for, in
+	 * order of travel.
+	 */
+	private void unpack(int e, IntList out) {
+		IntList stack = new IntList();
+		stack.add(e);
+		while (stack.size > 0) {
+			int top = stack.items[--stack.size];
+			if (second[top] < 0) {
+				out.add(first[top]);
+			} else {
+				// second goes on first, so first comes off first.
+				stack.add(second[top]);
+				stack.add(first[top]);
+			}
+		}
+	}
+
+	/**
+	 * A growable array of ints, used while building and unpacking.
+	 */
+	static class IntList {
+		int[] items = new int[16];
+		int size;
+
+		void add(int item) {
+			if (size == items.length) items = Arrays.copyOf(items, size * 2);
+			items[size++] = item;
+		}
+
+		void remove(int item) {
+			for (int i = 0; i < size; i++) {
+				if (items[i] == item) {
+					items[i] = items[--size];
+					return;
+				}
+			}
+		}
+
+		void reverse() {
+			for (int i = 0, j = size - 1; i < j; i++, j--) {
+				int t = items[i];
+				items[i] = items[j];
+				items[j] = t;
+			}
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(items, size);
+		}
+	}
+
+	/**
+	 * Holds the mutable graph while the hierarchy is being built.
+	 */
+	private static class Builder {
+		final int n;
+		int[] from, to, first, second;
+		double[] cost;
+		int edgeCount;
+
+		// edges out of and into each node. Once a node is contracted its edges
+		// are taken out of its neighbours' lists, though not its own.
+		final IntList[] out, in;
+		final boolean[] contracted;
+		final int[] deleted;
+		// the node whose contraction last updated each node's priority, so
+		// a node joined to it by edges both ways is only counted once.
+		final int[] lastTouched;
+		final int[] rank;
+
+		// witness search state, stamped like a SearchContext.
+		final IndexedHeap witnessFringe;
+		final double[] witnessDist;
+		final int[] witnessSeen;
+		int witnessGeneration;
+
+		Builder(RoutingGraph graph, EdgeWeights weights, boolean isTime) {
+			n = graph.size();
+			int m = graph.edgeCount();
+			from = new int[m];
+			to = new int[m];
+			first = new int[m];
+			second = new int[m];
+			cost = new double[m];
+			out = new IntList[n];
+			in = new IntList[n];
+			for (int v = 0; v < n; v++) {
+				out[v] = new IntList();
+				in[v] = new IntList();
+			}
+			for (int e = 0; e < m; e++) {
+				int u = graph.sources[e], v = graph.targets[e];
+				if (u == v) continue;
+				int existing = findEdge(u, v);
+				double c = weights.cost(e, isTime);
+				if (existing >= 0) {
+					// only the cheapest of parallel edges matters.
+					if (c < cost[existing]) {
+						cost[existing] = c;
+						first[existing] = e;
+					}
+					continue;
+				}
+				addEdge(u, v, c, e, -1);
+			}
+			contracted = new boolean[n];
+			deleted = new int[n];
+			lastTouched = new int[n];
+			Arrays.fill(lastTouched, -1);
+			rank = new int[n];
+			witnessFringe = new IndexedHeap(n);
+			witnessDist = new double[n];
+			witnessSeen = new int[n];
+		}
+
+		void contractAll() {
+			IndexedHeap order = new IndexedHeap(n);
+			for (int v = 0; v < n; v++)
+				order.push(v, priority(v));
+
+			int next = 0;
+			while (!order.isEmpty()) {
+				int v = order.poll();
+				// priorities go stale as neighbours are contracted, so check
+				// this one is still the least important before committing.
+				double p = priority(v);
+				if (!order.isEmpty() && p > order.peekKey()) {
+					order.push(v, p);
+					continue;
+				}
+				contract(v, true);
+				IntList neighbours = retire(v, next++);
+				for (int i = 0; i < neighbours.size; i++) {
+					int w = neighbours.items[i];
+					if (!order.contains(w) || lastTouched[w] == v) continue;
+					lastTouched[w] = v;
+					deleted[w]++;
+					order.update(w, priority(w));
+				}
+			}
+		}
+
+		/**
+		 * Contracts the nodes in the order given, with no priorities to keep.
+		 */
+		void contractInOrder(int[] order) {
+			for (int next = 0; next < order.length; next++) {
+				contract(order[next], true);
+				retire(order[next], next);
+			}
+		}
+
+		/**
+		 * Marks v contracted at the given rank and takes its edges out of its
+		 * neighbours' lists, so the rest of the build only ever looks at the
+		 * uncontracted graph.
+		 *
+		 * @return the neighbours, some maybe more than once.
+		 */
+		private IntList retire(int v, int r) {
+			contracted[v] = true;
+			rank[v] = r;
+			IntList neighbours = new IntList();
+			for (int i = 0; i < out[v].size; i++) {
+				int e = out[v].items[i];
+				in[to[e]].remove(e);
+				neighbours.add(to[e]);
+			}
+			for (int i = 0; i < in[v].size; i++) {
+				int e = in[v].items[i];
+				out[from[e]].remove(e);
+				neighbours.add(from[e]);
+			}
+			return neighbours;
+		}
+
+		/**
+		 * Twice the edge difference plus the number of contracted neighbours;
+		 * the second term spreads contraction evenly over the graph.
+		 */
+		private double priority(int v) {
+			int shortcuts = contract(v, false);
+			return 2 * (shortcuts - out[v].size - in[v].size) + deleted[v];
+		}
+
+		/**
+		 * Finds the shortcuts contracting v needs, adds them if commit is
+		 * true, and returns how many there are.
+		 */
+		private int contract(int v, boolean commit) {
+			int shortcuts = 0;
+			for (int i = 0; i < in[v].size; i++) {
+				int inEdge = in[v].items[i];
+				int u = from[inEdge];
+				if (contracted[u]) continue;
+
+				double limit = 0;
+				for (int j = 0; j < out[v].size; j++) {
+					int outEdge = out[v].items[j];
+					if (!contracted[to[outEdge]] && to[outEdge] != u)
+						limit = Math.max(limit, cost[inEdge] + cost[outEdge]);
+				}
+				if (limit == 0) continue;
+				witnessSearch(u, v, limit, commit ? WITNESS_SETTLE_LIMIT : ESTIMATE_SETTLE_LIMIT);
+
+				for (int j = 0; j < out[v].size; j++) {
+					int outEdge = out[v].items[j];
+					int w = to[outEdge];
+					if (contracted[w] || w == u) continue;
+					double via = cost[inEdge] + cost[outEdge];
+					if (witnessSeen[w] == witnessGeneration && witnessDist[w] <= via) continue;
+					shortcuts++;
+					if (commit) addShortcut(u, w, via, inEdge, outEdge);
+				}
+			}
+			return shortcuts;
+		}
+
+		/**
+		 * Dijkstra from u over the uncontracted nodes other than v, up to
+		 * the given cost or number of nodes settled.
+		 */
+		private void witnessSearch(int u, int v, double limit, int maxSettled) {
+			witnessGeneration++;
+			witnessFringe.clear();
+			witnessSeen[u] = witnessGeneration;
+			witnessDist[u] = 0;
+			witnessFringe.push(u, 0);
+			int settled = 0;
+			while (!witnessFringe.isEmpty() && settled++ < maxSettled) {
+				if (witnessFringe.peekKey() > limit) break;
+				int current = witnessFringe.poll();
+				for (int i = 0; i < out[current].size; i++) {
+					int e = out[current].items[i];
+					int next = to[e];
+					if (next == v || contracted[next]) continue;
+					double d = witnessDist[current] + cost[e];
+					if (witnessSeen[next] == witnessGeneration && d >= witnessDist[next]) continue;
+					witnessSeen[next] = witnessGeneration;
+					witnessDist[next] = d;
+					witnessFringe.push(next, d);
+				}
+			}
+		}
+
+		private void addShortcut(int u, int w, double c, int a, int b) {
+			// an existing edge may already be a part of other shortcuts, so
+			// it's never changed; a cheaper shortcut goes in alongside it.
+			int existing = findEdge(u, w);
+			if (existing >= 0 && cost[existing] <= c) return;
+			addEdge(u, w, c, a, b);
+		}
+
+		/**
+		 * @return the cheapest edge from u to w, or -1 if there isn't one.
+		 */
+		private int findEdge(int u, int w) {
+			int best = -1;
+			for (int i = 0; i < out[u].size; i++) {
+				int e = out[u].items[i];
+				if (to[e] == w && (best < 0 || cost[e] < cost[best])) best = e;
+			}
+			return best;
+		}
+
+		private void addEdge(int u, int w, double c, int a, int b) {
+			if (edgeCount == from.length) {
+				int size = Math.max(16, edgeCount * 3 / 2);
+				from = Arrays.copyOf(from, size);
+				to = Arrays.copyOf(to, size);
+				first = Arrays.copyOf(first, size);
+				second = Arrays.copyOf(second, size);
+				cost = Arrays.copyOf(cost, size);
+			}
+			int e = edgeCount++;
+			from[e] = u;
+			to[e] = w;
+			cost[e] = c;
+			first[e] = a;
+			second[e] = b;
+			out[u].add(e);
+			in[w].add(e);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * DistanceMatrix holds the cost of the cheapest route from each of a set of
+ * source nodes to each of a set of target nodes, by distance (km) or by time
+ * (hours at the speed limits, or any slower traffic speeds the RouteFinder
+ * has), as Route.total gives for the route findRoute finds. Unreachable pairs
+ * are infinity.
+ *
+ * Rather than a search per pair, each row is a single one-to-many Dijkstra
+ * search from its source that stops once it has settled every target, and
+ * the rows are computed in parallel on the fork-join common pool.
+ *
+ * Run as a program, it reads a file of points (one per line, either lat,lon
+ * or a node ID) and writes the matrix as CSV, or as binary: the number of
+ * rows and columns as big-endian ints, then the values row by row as
+ * big-endian doubles.
+ */
+public class DistanceMatrix {
+	// RoutingGraph indices of the rows' and columns' nodes.
+	public final int[] sources, targets;
+	public final boolean isTime;
+	// the value for (i, j) at [i * targets.length + j].
+	private final double[] values;
+
+	private DistanceMatrix(int[] sources, int[] targets, boolean isTime, double[] values) {
+		this.sources = sources;
+		this.targets = targets;
+		this.isTime = isTime;
+		this.values = values;
+	}
+
+	/**
+	 * Computes the matrix from every node in sources to every node in
+	 * targets, both as RoutingGraph indices.
+	 *
+	 * @throws IllegalArgumentException if there would be more cells than an
+	 *         array can hold.
+	 */
+	public static DistanceMatrix compute(RouteFinder finder, int[] sources, int[] targets, boolean isTime) {
+		int cols = targets.length;
+		long cells = (long) sources.length * cols;
+		if (cells > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(String.format("%d x %d is %d cells, more than the %d a matrix can hold",
+					sources.length, cols, cells, Integer.MAX_VALUE));
+		double[] values = new double[(int) cells];
+		// each row only writes its own part of values.
+		IntStream.range(0, sources.length).parallel().forEach(i -> {
+			double[] row = finder.oneToMany(sources[i], targets, isTime);
+			System.arraycopy(row, 0, values, i * cols, cols);
+		});
+		return new DistanceMatrix(sources.clone(), targets.clone(), isTime, values);
+	}
+
+	/**
+	 * @return the cost from sources[i] to targets[j].
+	 */
+	public double get(int i, int j) {
+		return values[i * targets.length + j];
+	}
+
+	/**
+	 * Writes the matrix as CSV, a row per source, with unreachable pairs left
+	 * empty.
+	 */
+	public void writeCsv(File file) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < sources.length; i++) {
+				line.setLength(0);
+				for (int j = 0; j < targets.length; j++) {
+					if (j > 0) line.append(',');
+					double v = get(i, j);
+					if (v != Double.POSITIVE_INFINITY) line.append(v);
+				}
+				out.println(line);
+			}
+		}
+	}
+
+	public void writeBinary(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(sources.length);
+			out.writeInt(targets.length);
+			for (double v : values)
+				out.writeDouble(v);
+		}
+	}
+
+	/**
+	 * Reads a file of points, one per line, each either lat,lon (snapped to
+	 * the nearest node) or a node ID. Blank lines and lines starting with #
+	 * are skipped.
+	 *
+	 * @return the RoutingGraph indices of the points' nodes.
+	 */
+	static int[] readPoints(File file, Graph graph) throws IOException {
+		List<Integer> points = new ArrayList<>();
+		int lineNumber = 0;
+		for (String line : Files.readAllLines(file.toPath())) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			String[] parts = line.split("[,\\s]+");
+			try {
+				Node node;
+				if (parts.length == 1) {
+					node = graph.nodes.get(Integer.parseInt(parts[0]));
+					if (node == null) throw new IOException(file + ":" + lineNumber + ": no node " + parts[0]);
+				} else {
+					node = graph.findNearest(
+							Location.newFromLatLon(Double.parseDouble(parts[0]), Double.parseDouble(parts[1])));
+					if (node == null) throw new IOException(file + ":" + lineNumber + ": the graph has no nodes");
+				}
+				points.add(node.index);
+			} catch (NumberFormatException e) {
+				throw new IOException(file + ":" + lineNumber + ": expected lat,lon or a node ID");
+			}
+		}
+		return points.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	public static void main(String[] args) throws IOException {
+		List<String> files = new ArrayList<>();
+		boolean isTime = false;
+		File out = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--time")) isTime = true;
+			else if (args[i].equals("--out") && i + 1 < args.length) out = new File(args[++i]);
+			else files.add(args[i]);
+		}
+		if (files.size() < 2 || files.size() > 3) {
+			System.err.println("usage: java DistanceMatrix <data directory> <sources> [targets] [--time]"
+					+ " [--out matrix.csv|matrix.bin]");
+			System.exit(1);
+		}
+
+		Graph graph = Graph.fromDirectory(new File(files.get(0)));
+		RouteFinder finder = new RouteFinder(graph.routing);
+		int[] sources = readPoints(new File(files.get(1)), graph);
+		int[] targets = files.size() > 2 ? readPoints(new File(files.get(2)), graph) : sources;
+
+		long t0 = System.nanoTime();
+		DistanceMatrix matrix = compute(finder, sources, targets, isTime);
+		double seconds = (System.nanoTime() - t0) / 1e9;
+		long cells = (long) sources.length * targets.length;
+		System.out.printf("%d x %d %s matrix in %.0f ms: %.0f sources/s, %.0f cells/s on %d threads%n",
+				sources.length, targets.length, isTime ? "time" : "distance", seconds * 1e3,
+				sources.length / seconds, cells / seconds, Runtime.getRuntime().availableProcessors());
+
+		if (out != null) {
+			if (out.getName().endsWith(".csv")) matrix.writeCsv(out);
+			else matrix.writeBinary(out);
+			System.out.println("wrote " + out);
+		}
+	}
+}
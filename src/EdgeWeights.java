@@ -0,0 +1,69 @@
+/**
+ * EdgeWeights is one version of the costs a route search uses for the edges
+ * of a RoutingGraph: their lengths for distance, and for time the hours each
+ * takes at its search speed, with any live traffic speeds applied. It never
+ * changes once made, so a search that takes the current EdgeWeights when it
+ * starts sees the same costs all the way through, however many updates
+ * TrafficLayer publishes meanwhile.
+ */
+public class EdgeWeights {
+	public final RoutingGraph graph;
+	// counts the updates that led to these weights, from 0 for none.
+	public final long version;
+	private final double[] time;
+	private final int overrides;
+
+	/**
+	 * The weights with no traffic, from the speed limits and road classes.
+	 */
+	public EdgeWeights(RoutingGraph graph) {
+		this.graph = graph;
+		this.version = 0;
+		this.time = new double[graph.edgeCount()];
+		for (int e = 0; e < time.length; e++)
+			time[e] = graph.cost(e, true);
+		this.overrides = 0;
+	}
+
+	/**
+	 * Makes the next version, taking ownership of time.
+	 */
+	EdgeWeights(RoutingGraph graph, long version, double[] time, int overrides) {
+		this.graph = graph;
+		this.version = version;
+		this.time = time;
+		this.overrides = overrides;
+	}
+
+	/**
+	 * @return the cost of travelling along edge e, either its length in km or
+	 *         the hours it takes at its search speed.
+	 */
+	public double cost(int e, boolean isTime) {
+		return isTime ? time[e] : graph.lengths[e];
+	}
+
+	/**
+	 * @return the hours edge e takes at its speed limit, or at its traffic
+	 *         speed if that's slower. This is its time cost without the road
+	 *         class weighting, for saying how long a route takes.
+	 */
+	public double travelTime(int e) {
+		int r = graph.roads[e];
+		return time[e] * graph.roadSpeeds[r] / graph.roadTable[r].getSpeed(false);
+	}
+
+	/**
+	 * @return the number of edges with a traffic speed.
+	 */
+	public int overrideCount() {
+		return overrides;
+	}
+
+	/**
+	 * @return a copy of the time costs, for making the next version from.
+	 */
+	double[] timeCosts() {
+		return time.clone();
+	}
+}
@@ -69,6 +69,20 @@ public abstract class GUI {
 	 */
 	protected abstract void onUnitChange(boolean newIsTime);
 
+	/**
+	 * Called when a different search algorithm is picked.
+	 * @param newMode the algorithm routes should be searched with.
+	 */
+	protected abstract void onSearchModeChange(SearchMode newMode);
+
+	/**
+	 * Called when the reach button is pressed, to show everything reachable
+	 * from the selected node.
+	 * @param budget how far to reach, in minutes for the fastest path or km
+	 *            for the shortest.
+	 */
+	protected abstract void onReach(double budget);
+
 	/**
 	 * Is called when the user has successfully selected a directory to load the
 	 * data files from. File objects representing the four files of interested
@@ -89,6 +103,17 @@ public abstract class GUI {
 	protected abstract void onLoad(File nodes, File roads, File segments,
 			File polygons, File rests);
 
+	/**
+	 * Is called instead of onLoad when the selected directory has a
+	 * graph.snapshot (see GraphSnapshot) at least as new as its .tab files.
+	 * 
+	 * @param snapshot
+	 *            a File for graph.snapshot
+	 * @param polygons
+	 *            a File for polygon-shapes.mp, or null
+	 */
+	protected abstract void onLoadSnapshot(File snapshot, File polygons);
+
 	// here are some useful methods you'll need.
 
 	/**
@@ -188,7 +213,7 @@ public abstract class GUI {
 		JButton load = new JButton("Load");
 		load.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent ev) {
-				File nodes = null, roads = null, segments = null, polygons = null, restrictions = null;
+				File nodes = null, roads = null, segments = null, polygons = null, restrictions = null, snapshot = null;
 
 				// set up the file chooser
 				fileChooser.setCurrentDirectory(new File("."));
@@ -213,12 +238,17 @@ public abstract class GUI {
 							polygons = f;
 						} else if (f.getName().equals(RESTS_FILENAME)) {
 							restrictions = f;
+						} else if (f.getName().equals(GraphSnapshot.FILENAME)) {
+							snapshot = f;
 						}
 					}
 
 					// check none of the files are missing, and call the load
 					// method in your code.
-					if (nodes == null || roads == null || segments == null) {
+					if (snapshot != null && GraphSnapshot.isCurrent(snapshot, nodes, roads, segments, restrictions)) {
+						onLoadSnapshot(snapshot, polygons);
+						redraw();
+					} else if (nodes == null || roads == null || segments == null) {
 						JOptionPane.showMessageDialog(frame,
 								"Directory does not contain correct files",
 								"Error", JOptionPane.ERROR_MESSAGE);
@@ -290,6 +320,22 @@ public abstract class GUI {
 			redraw();
 		});
 
+		JComboBox<SearchMode> searchMode = new JComboBox<>(SearchMode.values());
+		searchMode.setMaximumSize(new Dimension(180, 25));
+		searchMode.addActionListener(e -> {
+			onSearchModeChange((SearchMode) searchMode.getSelectedItem());
+			redraw();
+		});
+
+		JSpinner budget = new JSpinner(new SpinnerNumberModel(10.0, 0.5, 600.0, 0.5));
+		budget.setMaximumSize(new Dimension(70, 25));
+		JButton reach = new JButton("Reach");
+		reach.setToolTipText("Show everything within this many minutes (fastest) or km (shortest) of the selected node");
+		reach.addActionListener(e -> {
+			onReach(((Number) budget.getValue()).doubleValue());
+			redraw();
+		});
+
 		// next, make the search box at the top-right. we manually fix
 		// it's size, and add an action listener to call your code when
 		// the user presses enter.
@@ -367,6 +413,10 @@ public abstract class GUI {
 		units.add(distance);
 		units.add(time);
 		controls.add(units);
+		controls.add(searchMode);
+		controls.add(Box.createRigidArea(new Dimension(15, 0)));
+		controls.add(budget);
+		controls.add(reach);
 
 		controls.add(Box.createRigidArea(new Dimension(15, 0)));
 		// glue is another invisible component that grows to take up all the
@@ -1,5 +1,6 @@
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.List;
 
@@ -17,6 +18,20 @@ public class Graph {
 	Map<Integer, Road> roads;
 	// just some collection of Segments.
 	Collection<Segment> segments;
+	// the parks, lakes, buildings etc. drawn under the roads, or null if there
+	// was no polygon file.
+	PolygonLayer polygons;
+	// map intersections to the turns that are prohibited at them.
+	Map<Node, List<Restriction>> restrictions;
+	// compact adjacency arrays that the route search runs over.
+	RoutingGraph routing;
+	// spatial indexes for finding the nodes nearest a location, and the nodes
+	// and segments in the part of the map on screen at each zoom.
+	NodeIndex nodeIndex;
+	LevelOfDetail detail;
+	// screen coordinate buffers for drawing, which only happens on the
+	// swing thread.
+	private final Projection projection = new Projection();
 
 	// selected intersections
 	Node start;
@@ -27,10 +42,68 @@ public class Graph {
 	// nodes visited for search debugging purposes
 	Collection<Node> visited = new HashSet<>();
 
-	public Graph(File nodes, File roads, File segments, File polygons) {
+	public Graph(File nodes, File roads, File segments, File polygons, File restrictions) {
 		this.nodes = Parser.parseNodes(nodes, this);
 		this.roads = Parser.parseRoads(roads, this);
 		this.segments = Parser.parseSegments(segments, this);
+		if (restrictions != null) this.restrictions = Parser.parseRestrictions(restrictions, this);
+		else this.restrictions = new HashMap<>();
+		if (polygons != null) this.polygons = Parser.parsePolygons(polygons, this);
+		buildIndexes();
+	}
+
+	/**
+	 * Makes a graph out of Nodes, Roads and Segments that are already linked
+	 * together, as a GraphSnapshot loads them.
+	 */
+	Graph(Map<Integer, Node> nodes, Map<Integer, Road> roads, Collection<Segment> segments,
+			Map<Node, List<Restriction>> restrictions) {
+		this.nodes = nodes;
+		this.roads = roads;
+		this.segments = segments;
+		this.restrictions = restrictions;
+		buildIndexes();
+	}
+
+	/**
+	 * Loads the graph in a data directory without its polygons, for tools
+	 * that don't draw it, from its snapshot if it has an up to date one.
+	 */
+	public static Graph fromDirectory(File dir) throws IOException {
+		File nodes = new File(dir, "nodeID-lat-lon.tab"), roads = new File(dir, "roadID-roadInfo.tab");
+		File segments = new File(dir, "roadSeg-roadID-length-nodeID-nodeID-coords.tab");
+		File rests = new File(dir, "restrictions.tab");
+		File snapshot = new File(dir, GraphSnapshot.FILENAME);
+		if (!rests.exists()) rests = null;
+		if (snapshot.exists() && GraphSnapshot.isCurrent(snapshot, nodes, roads, segments, rests))
+			return GraphSnapshot.load(snapshot);
+		return new Graph(nodes, roads, segments, null, rests);
+	}
+
+	private void buildIndexes() {
+		this.routing = new RoutingGraph(this);
+		this.nodeIndex = new NodeIndex(routing);
+		this.detail = new LevelOfDetail(segments);
+	}
+
+	/**
+	 * @return the node closest to the given location, or null if there are
+	 *         no nodes.
+	 */
+	public Node findNearest(Location location) {
+		int node = nodeIndex.nearest(location.x, location.y);
+		return node < 0 ? null : routing.nodes[node];
+	}
+
+	/**
+	 * @return the k nodes closest to the given location, closest first, or
+	 *         none if k isn't positive.
+	 */
+	public List<Node> findNearest(Location location, int k) {
+		List<Node> found = new ArrayList<>();
+		for (int node : nodeIndex.nearest(location.x, location.y, k))
+			found.add(routing.nodes[node]);
+		return found;
 	}
 
 	public void draw(Graphics g, Dimension screen, Location origin, double scale) {
@@ -39,11 +112,44 @@ public class Graph {
 		// they're a subclass, and swing always gives them out anyway, so we can
 		// just do this.
 		Graphics2D g2 = (Graphics2D) g;
+		projection.set(origin, scale);
+		drawBase(g2, projection, screen, scale);
+		drawOverlay(g2, screen, origin, scale);
+	}
+
+	/**
+	 * Draws the parts of the map that don't change once it's loaded, the
+	 * polygons, segments and nodes, into an area of the given size at the
+	 * view the projection is set to. This only reads the graph, so it can be
+	 * run on any number of threads at once, each with its own Projection.
+	 */
+	void drawBase(Graphics2D g2, Projection projection, Dimension area, double scale) {
+		int size = (int) (Mapper.NODE_GRADIENT * Math.log(scale) + Mapper.NODE_INTERCEPT);
+		// wide enough to take in node squares and thick lines near the edge.
+		double[] window = projection.window(area, size + 2);
 
-		// draw all the segments.
+		// draw the segments that can be on screen, in as much detail as this
+		// zoom can show.
+		int band = detail.band(scale);
+		if (polygons != null) polygons.draw(g2, projection, window, scale, band);
 		g2.setColor(Mapper.SEGMENT_COLOUR);
-		for (Segment s : segments)
-			s.draw(g2, origin, scale);
+		detail.index(band).query(window[0], window[1], window[2], window[3],
+				s -> projection.drawPolyline(g2, detail.points(band, s)));
+
+		// draw the nodes that are on screen, unless they'd just be specks.
+		g2.setColor(Mapper.NODE_COLOUR);
+		if (detail.showsNodes(band))
+			nodeIndex.forEachInRange(window[0], window[1], window[2], window[3],
+					v -> g2.fillRect(projection.x(routing.x[v]) - size / 2, projection.y(routing.y[v]) - size / 2, size, size));
+	}
+
+	/**
+	 * Draws the route and selected nodes over the map. Only called from the
+	 * swing thread.
+	 */
+	public void drawOverlay(Graphics g, Dimension screen, Location origin, double scale) {
+		Graphics2D g2 = (Graphics2D) g;
+		projection.set(origin, scale);
 
 		// draw the segments of all highlighted roads.
 		Color PATH_COLOUR = new Color(174, 38, 230);
@@ -51,15 +157,10 @@ public class Graph {
 		g2.setStroke(new BasicStroke(3));
 		for (Road road : highlightedRoads) {
 			for (Segment seg : road.components) {
-				seg.draw(g2, origin, scale);
+				projection.drawPolyline(g2, seg.points);
 			}
 		}
 
-		// draw all the nodes.
-		g2.setColor(Mapper.NODE_COLOUR);
-		for (Node n : nodes.values())
-			n.draw(g2, screen, origin, scale);
-
 		// draw the highlighted node, if it exists.
 		if (highlightedNode != null) {
 			g2.setColor(Mapper.HIGHLIGHT_COLOUR);
@@ -0,0 +1,308 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * GraphSnapshot saves a loaded Graph to a single binary file and loads it back
+ * much faster than parsing the .tab files, since there is no text to split or
+ * numbers to parse and the node and segment coordinates are stored already
+ * converted to Locations. The file is memory-mapped to load it, so several
+ * processes on one machine reading the same snapshot share its pages.
+ *
+ * The file is a fixed header followed by a body of flat little-endian arrays:
+ *
+ *   header:       magic, version, node count, road count, segment count,
+ *                 point count, restriction count, string bytes (ints), then
+ *                 body length and CRC-32C of the body (longs)
+ *   nodes:        ID, then x and y (doubles), per node in ID order
+ *   roads:        ID, type, one way, speed, class, per road in ID order, then
+ *                 offsets into the string bytes of each road's name and city
+ *                 and the UTF-8 string bytes themselves
+ *   segments:     road, start node and end node (as positions in the arrays
+ *                 above), length (doubles), offsets into the point arrays, and
+ *                 the x and y of every point (doubles)
+ *   restrictions: previous node, previous road, node, next road and next node
+ *                 (positions in the arrays above, or -1 if unknown)
+ *
+ * Any change to the layout must bump VERSION, and load refuses files with any
+ * other version or a checksum that doesn't match.
+ */
+public class GraphSnapshot {
+	public static final String FILENAME = "graph.snapshot";
+	public static final int MAGIC = 0x53475A4E; // "NZGS" in file order
+	public static final int VERSION = 1;
+	private static final int HEADER_BYTES = 8 * 4 + 2 * 8;
+
+	private GraphSnapshot() {
+		// only static methods
+	}
+
+	/**
+	 * Writes graph to file, replacing anything already there.
+	 */
+	public static void save(Graph graph, File file) throws IOException {
+		RoutingGraph rg = graph.routing;
+		Node[] nodes = rg.nodes;
+		Road[] roads = rg.roadTable;
+
+		// segments in edge order, so a snapshot of the same data is always
+		// the same bytes.
+		Map<Segment, Integer> segIndex = new IdentityHashMap<>();
+		List<Segment> segs = new ArrayList<>();
+		for (Segment s : rg.segments) {
+			if (segIndex.putIfAbsent(s, segs.size()) == null) segs.add(s);
+		}
+		// one-way segments that run against their road's direction have no
+		// edge, but they're still drawn.
+		for (Segment s : graph.segments) {
+			if (segIndex.putIfAbsent(s, segs.size()) == null) segs.add(s);
+		}
+		int points = 0;
+		for (Segment s : segs)
+			points += s.points.length;
+
+		List<Restriction> rests = new ArrayList<>();
+		for (Node node : nodes) {
+			List<Restriction> at = graph.restrictions.get(node);
+			if (at != null) rests.addAll(at);
+		}
+		List<Restriction> unknown = graph.restrictions.get(null);
+		if (unknown != null) rests.addAll(unknown);
+
+		byte[][] strings = new byte[2 * roads.length][];
+		int stringBytes = 0;
+		for (int i = 0; i < roads.length; i++) {
+			strings[2 * i] = roads[i].name.getBytes(StandardCharsets.UTF_8);
+			strings[2 * i + 1] = roads[i].city.getBytes(StandardCharsets.UTF_8);
+			stringBytes += strings[2 * i].length + strings[2 * i + 1].length;
+		}
+
+		int n = nodes.length, r = roads.length, m = segs.size(), k = rests.size();
+		long bodyBytes = 4L * n + 16L * n
+				+ 4L * 5 * r + 4L * (2 * r + 1) + stringBytes
+				+ 4L * 3 * m + 8L * m + 4L * (m + 1) + 16L * points
+				+ 4L * 5 * k;
+
+		// a mapped buffer is indexed by int.
+		if (HEADER_BYTES + bodyBytes > Integer.MAX_VALUE) throw new IOException("graph too large for a snapshot");
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + bodyBytes);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			buf.position(HEADER_BYTES);
+
+			for (Node node : nodes)
+				buf.putInt(node.nodeID);
+			for (Node node : nodes)
+				buf.putDouble(node.location.x);
+			for (Node node : nodes)
+				buf.putDouble(node.location.y);
+
+			for (Road road : roads)
+				buf.putInt(road.roadID);
+			for (Road road : roads)
+				buf.putInt(road.type);
+			for (Road road : roads)
+				buf.putInt(road.oneWay);
+			for (Road road : roads)
+				buf.putInt(road.speed);
+			for (Road road : roads)
+				buf.putInt(road.roadClass);
+			int offset = 0;
+			buf.putInt(offset);
+			for (byte[] s : strings)
+				buf.putInt(offset += s.length);
+			for (byte[] s : strings)
+				buf.put(s);
+
+			for (Segment s : segs)
+				buf.putInt(s.road.index);
+			for (Segment s : segs)
+				buf.putInt(s.start.index);
+			for (Segment s : segs)
+				buf.putInt(s.end.index);
+			for (Segment s : segs)
+				buf.putDouble(s.length);
+			offset = 0;
+			buf.putInt(offset);
+			for (Segment s : segs)
+				buf.putInt(offset += s.points.length);
+			for (Segment s : segs)
+				for (Location p : s.points)
+					buf.putDouble(p.x);
+			for (Segment s : segs)
+				for (Location p : s.points)
+					buf.putDouble(p.y);
+
+			for (Restriction rest : rests)
+				buf.putInt(rest.prev == null ? -1 : rest.prev.index);
+			for (Restriction rest : rests)
+				buf.putInt(rest.prevRd == null ? -1 : rest.prevRd.index);
+			for (Restriction rest : rests)
+				buf.putInt(rest.curr == null ? -1 : rest.curr.index);
+			for (Restriction rest : rests)
+				buf.putInt(rest.nextRd == null ? -1 : rest.nextRd.index);
+			for (Restriction rest : rests)
+				buf.putInt(rest.next == null ? -1 : rest.next.index);
+
+			buf.position(0);
+			buf.putInt(MAGIC).putInt(VERSION);
+			buf.putInt(n).putInt(r).putInt(m).putInt(points).putInt(k).putInt(stringBytes);
+			buf.putLong(bodyBytes).putLong(checksum(buf, bodyBytes));
+			buf.force();
+		}
+	}
+
+	/**
+	 * Loads a graph saved by save.
+	 *
+	 * @throws IOException if the file can't be read, isn't a snapshot, is a
+	 *         snapshot of another version, or is damaged.
+	 */
+	public static Graph load(File file) throws IOException {
+		MappedByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE)
+				throw new IOException(file + " is not a graph snapshot");
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		if (buf.getInt() != MAGIC) throw new IOException(file + " is not a graph snapshot");
+		int version = buf.getInt();
+		if (version != VERSION)
+			throw new IOException(file + " is snapshot version " + version + ", expected " + VERSION);
+		int n = buf.getInt(), r = buf.getInt(), m = buf.getInt();
+		int points = buf.getInt(), k = buf.getInt(), stringBytes = buf.getInt();
+		long bodyBytes = buf.getLong(), expected = buf.getLong();
+		if (n < 0 || r < 0 || m < 0 || points < 0 || k < 0 || stringBytes < 0
+				|| bodyBytes != buf.capacity() - HEADER_BYTES)
+			throw new IOException(file + " is truncated");
+		if (checksum(buf, bodyBytes) != expected) throw new IOException(file + " failed its checksum");
+		buf.position(HEADER_BYTES);
+
+		int[] nodeIDs = ints(buf, n);
+		double[] x = doubles(buf, n), y = doubles(buf, n);
+		Node[] nodes = new Node[n];
+		Map<Integer, Node> nodeMap = new HashMap<>(2 * n);
+		for (int i = 0; i < n; i++) {
+			nodes[i] = new Node(nodeIDs[i], new Location(x[i], y[i]));
+			nodeMap.put(nodeIDs[i], nodes[i]);
+		}
+
+		int[] roadIDs = ints(buf, r), types = ints(buf, r), oneWays = ints(buf, r);
+		int[] speeds = ints(buf, r), classes = ints(buf, r);
+		int[] stringOffsets = ints(buf, 2 * r + 1);
+		byte[] bytes = new byte[stringBytes];
+		buf.get(bytes);
+		Road[] roads = new Road[r];
+		Map<Integer, Road> roadMap = new HashMap<>(2 * r);
+		for (int i = 0; i < r; i++) {
+			String name = string(bytes, stringOffsets, 2 * i), city = string(bytes, stringOffsets, 2 * i + 1);
+			roads[i] = new Road(roadIDs[i], types[i], name, city, oneWays[i], speeds[i], classes[i]);
+			roadMap.put(roadIDs[i], roads[i]);
+		}
+
+		int[] segRoads = ints(buf, m), starts = ints(buf, m), ends = ints(buf, m);
+		double[] lengths = doubles(buf, m);
+		int[] pointOffsets = ints(buf, m + 1);
+		double[] px = doubles(buf, points), py = doubles(buf, points);
+		List<Segment> segments = new ArrayList<>(m);
+		for (int i = 0; i < m; i++) {
+			Location[] locs = new Location[pointOffsets[i + 1] - pointOffsets[i]];
+			for (int j = 0; j < locs.length; j++)
+				locs[j] = new Location(px[pointOffsets[i] + j], py[pointOffsets[i] + j]);
+			segments.add(new Segment(roads[segRoads[i]], nodes[starts[i]], nodes[ends[i]], lengths[i], locs));
+		}
+
+		int[] prev = ints(buf, k), prevRd = ints(buf, k), curr = ints(buf, k);
+		int[] nextRd = ints(buf, k), next = ints(buf, k);
+		Map<Node, List<Restriction>> restrictions = new HashMap<>();
+		for (int i = 0; i < k; i++) {
+			Restriction rest = new Restriction(at(roads, prevRd[i]), at(roads, nextRd[i]),
+					at(nodes, prev[i]), at(nodes, curr[i]), at(nodes, next[i]));
+			restrictions.computeIfAbsent(rest.curr, c -> new ArrayList<>()).add(rest);
+		}
+
+		return new Graph(nodeMap, roadMap, Collections.unmodifiableList(segments), restrictions);
+	}
+
+	private static long checksum(ByteBuffer buf, long bodyBytes) {
+		CRC32C crc = new CRC32C();
+		crc.update(buf.duplicate().position(HEADER_BYTES).limit((int) (HEADER_BYTES + bodyBytes)));
+		return crc.getValue();
+	}
+
+	private static int[] ints(ByteBuffer buf, int count) {
+		int[] values = new int[count];
+		buf.asIntBuffer().get(values);
+		buf.position(buf.position() + 4 * count);
+		return values;
+	}
+
+	private static double[] doubles(ByteBuffer buf, int count) {
+		double[] values = new double[count];
+		buf.asDoubleBuffer().get(values);
+		buf.position(buf.position() + 8 * count);
+		return values;
+	}
+
+	private static String string(byte[] bytes, int[] offsets, int i) {
+		return new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+	}
+
+	private static <T> T at(T[] array, int i) {
+		return i < 0 ? null : array[i];
+	}
+
+	/**
+	 * @return true if snapshot was written after all of the given files that
+	 *         exist, so it can't be missing any changes made to them.
+	 */
+	public static boolean isCurrent(File snapshot, File... sources) {
+		for (File f : sources) {
+			if (f != null && f.lastModified() > snapshot.lastModified()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Converts a directory of .tab files into a snapshot, which is written to
+	 * graph.snapshot in the same directory unless another file is given.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: java GraphSnapshot <data directory> [snapshot file]");
+			System.exit(1);
+		}
+		File dir = new File(args[0]);
+		File out = args.length > 1 ? new File(args[1]) : new File(dir, FILENAME);
+		File rests = new File(dir, "restrictions.tab");
+
+		long t0 = System.nanoTime();
+		Graph graph = new Graph(new File(dir, "nodeID-lat-lon.tab"), new File(dir, "roadID-roadInfo.tab"),
+				new File(dir, "roadSeg-roadID-length-nodeID-nodeID-coords.tab"), null,
+				rests.exists() ? rests : null);
+		long t1 = System.nanoTime();
+		save(graph, out);
+		long t2 = System.nanoTime();
+		load(out);
+		long t3 = System.nanoTime();
+		System.out.printf("parsed %d nodes, %d segments in %.0f ms%n", graph.nodes.size(),
+				graph.segments.size(), (t1 - t0) / 1e6);
+		System.out.printf("wrote %s (%d bytes) in %.0f ms%n", out, out.length(), (t2 - t1) / 1e6);
+		System.out.printf("loaded it back in %.0f ms%n", (t3 - t2) / 1e6);
+	}
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative longs that any number of threads can record
+ * into at once without locking. Values below 16 get a bucket each, and above
+ * that every power of two is split into 8 buckets, so a percentile read back
+ * from it is within 12.5% of the true value, whatever the range of values.
+ * Recording is a few atomic adds, cheap enough to do on every route search.
+ */
+public class Histogram {
+	private static final int SUB_BITS = 3, SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int LINEAR = 2 * SUB_BUCKETS;
+	private static final int BUCKETS = LINEAR + (64 - SUB_BITS - 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder(), sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0) value = 0;
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		if (value > max.get()) max.accumulateAndGet(value, Math::max);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+
+	public long count() {
+		return count.sum();
+	}
+
+	public double mean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * @return the value that fraction q of the recorded values are at or
+	 *         below, to within the width of its bucket, or 0 if nothing has
+	 *         been recorded.
+	 */
+	public long percentile(double q) {
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			n += snapshot[i] = counts.get(i);
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(q * n));
+		for (int i = 0; i < BUCKETS; i++) {
+			rank -= snapshot[i];
+			if (rank <= 0) return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	public Summary summary() {
+		return new Summary(count(), mean(), percentile(0.5), percentile(0.9), percentile(0.99), max());
+	}
+
+	private static int bucket(long value) {
+		if (value < LINEAR) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the largest value that goes in bucket i.
+	 */
+	private static long upperBound(int i) {
+		if (i < LINEAR) return i;
+		int exponent = (i - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+		long sub = (i - LINEAR) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BITS);
+		return (1L << exponent) + (sub + 1) * width - 1;
+	}
+
+	/**
+	 * A snapshot of a Histogram, in the form JMX shows as a table row.
+	 */
+	public static class Summary {
+		private final long count, p50, p90, p99, max;
+		private final double mean;
+
+		public Summary(long count, double mean, long p50, long p90, long p99, long max) {
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP90() {
+			return p90;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", count, mean, p50, p90, p99, max);
+		}
+	}
+}
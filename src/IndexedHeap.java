@@ -0,0 +1,149 @@
+import java.util.Arrays;
+
+/**
+ * A 4-ary min-heap of the ints 0..capacity-1, each keyed by a double. It keeps
+ * the heap position of every item so that a key can be lowered in place,
+ * which lets the route search hold one fringe entry per node and update it
+ * rather than pushing a new object on every relaxation. Nothing is allocated
+ * after construction.
+ */
+public class IndexedHeap {
+	private final int[] heap;     // heap slot -> item
+	private final int[] position; // item -> heap slot, or -1 if not queued
+	private final double[] keys;  // item -> key
+	private int size;
+	// the most items queued at once since the last clear.
+	private int peak;
+
+	public IndexedHeap(int capacity) {
+		heap = new int[capacity];
+		position = new int[capacity];
+		keys = new double[capacity];
+		Arrays.fill(position, -1);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the most items there have been in the heap since it was last
+	 *         cleared.
+	 */
+	public int peak() {
+		return peak;
+	}
+
+	public boolean contains(int item) {
+		return position[item] >= 0;
+	}
+
+	/**
+	 * @return the smallest key in the heap, or infinity if it is empty.
+	 */
+	public double peekKey() {
+		return size == 0 ? Double.POSITIVE_INFINITY : keys[heap[0]];
+	}
+
+	/**
+	 * Adds item with the given key, or lowers its key if it is already queued
+	 * with a larger one. A larger key for a queued item is ignored.
+	 */
+	public void push(int item, double key) {
+		int slot = position[item];
+		if (slot < 0) {
+			slot = size++;
+			if (size > peak) peak = size;
+			heap[slot] = item;
+			position[item] = slot;
+		} else if (key >= keys[item]) {
+			return;
+		}
+		keys[item] = key;
+		siftUp(slot);
+	}
+
+	/**
+	 * Adds item with the given key, or moves it to the given key whether that
+	 * is smaller or larger than its current one.
+	 */
+	public void update(int item, double key) {
+		int slot = position[item];
+		if (slot < 0 || key <= keys[item]) {
+			push(item, key);
+			return;
+		}
+		keys[item] = key;
+		siftDown(slot);
+	}
+
+	/**
+	 * Removes and returns the item with the smallest key.
+	 */
+	public int poll() {
+		int top = heap[0];
+		position[top] = -1;
+		int last = heap[--size];
+		if (size > 0) {
+			heap[0] = last;
+			position[last] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	/**
+	 * Empties the heap. Only the items still queued are touched, so this is
+	 * cheap after a search that stopped early.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++)
+			position[heap[i]] = -1;
+		size = 0;
+		peak = 0;
+	}
+
+	private void siftUp(int slot) {
+		int item = heap[slot];
+		double key = keys[item];
+		while (slot > 0) {
+			int parent = (slot - 1) >> 2;
+			int p = heap[parent];
+			if (keys[p] <= key) break;
+			heap[slot] = p;
+			position[p] = slot;
+			slot = parent;
+		}
+		heap[slot] = item;
+		position[item] = slot;
+	}
+
+	private void siftDown(int slot) {
+		int item = heap[slot];
+		double key = keys[item];
+		while (true) {
+			int first = (slot << 2) + 1;
+			if (first >= size) break;
+			int best = first;
+			double bestKey = keys[heap[first]];
+			int end = Math.min(first + 4, size);
+			for (int c = first + 1; c < end; c++) {
+				double k = keys[heap[c]];
+				if (k < bestKey) {
+					best = c;
+					bestKey = k;
+				}
+			}
+			if (bestKey >= key) break;
+			heap[slot] = heap[best];
+			position[heap[slot]] = slot;
+			slot = best;
+		}
+		heap[slot] = item;
+		position[item] = slot;
+	}
+}
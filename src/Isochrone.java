@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Isochrone is the result of a reachability query: every node that can be
+ * reached from start within a budget of distance or time, and the cost of
+ * getting to each, plus the boundary edges that lead out of the reached area
+ * and can only be partly travelled within the budget. Costs are in the search
+ * metric, the same one routes are found with.
+ */
+public class Isochrone {
+	public final RoutingGraph graph;
+	public final int start;
+	public final double budget;
+	public final boolean isTime;
+	// the reached nodes, and the cost of reaching each, in the same order.
+	private final int[] nodes;
+	private final double[] costs;
+	// edges from a reached node to one that isn't.
+	private final int[] boundary;
+
+	Isochrone(RoutingGraph graph, int start, double budget, boolean isTime, int[] nodes, double[] costs,
+			int[] boundary) {
+		this.graph = graph;
+		this.start = start;
+		this.budget = budget;
+		this.isTime = isTime;
+		this.nodes = nodes;
+		this.costs = costs;
+		this.boundary = boundary;
+	}
+
+	/**
+	 * @return the number of nodes reached, including start.
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * @return a copy of the RoutingGraph indices of the reached nodes.
+	 */
+	public int[] nodeIndices() {
+		return nodes.clone();
+	}
+
+	/**
+	 * @return the cost of reaching the ith reached node.
+	 */
+	public double cost(int i) {
+		return costs[i];
+	}
+
+	/**
+	 * @return the reached Nodes, to shade with Graph.setVisited.
+	 */
+	public Set<Node> reachedNodes() {
+		Set<Node> set = new HashSet<>(2 * nodes.length);
+		for (int v : nodes)
+			set.add(graph.nodes[v]);
+		return set;
+	}
+
+	/**
+	 * @return the Segments leading out of the reached area.
+	 */
+	public List<Segment> boundarySegments() {
+		List<Segment> list = new ArrayList<>(boundary.length);
+		for (int e : boundary)
+			list.add(graph.segments[e]);
+		return list;
+	}
+}
@@ -0,0 +1,173 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Landmarks gives the ALT (A*, landmarks, triangle inequality) heuristic for
+ * one metric. A handful of landmark nodes are picked far apart, near the edges
+ * of the map, and the cost from each landmark to every node and from every
+ * node back to it is stored. For any landmark L the triangle inequality gives
+ *
+ *   cost(v, t) >= cost(L, t) - cost(L, v)   and   cost(v, t) >= cost(v, L) - cost(t, L)
+ *
+ * and the largest of these over all landmarks is a lower bound on the cost
+ * from v to t that is far tighter than straight-line distance over the top
+ * speed. Each bound is consistent, so their maximum is too.
+ *
+ * The tables ignore prohibited turns, which can only make real routes more
+ * expensive, so the bound still holds for them.
+ */
+public class Landmarks {
+	public static final int DEFAULT_COUNT = 16;
+
+	public final RoutingGraph graph;
+	public final boolean isTime;
+	// the landmark nodes.
+	final int[] landmarks;
+	// how many landmarks each table row is for.
+	private final int count;
+	// cost from landmark i to node v at [i * n + v], and from v back to it.
+	final float[] from, to;
+	// floats round the stored costs, so bounds are lowered by this much to
+	// make sure rounding never pushes them above the true cost.
+	private final double slack;
+
+	public Landmarks(RoutingGraph graph, boolean isTime, int count) {
+		this.graph = graph;
+		this.isTime = isTime;
+		int n = graph.size();
+		// farthest selection: each landmark is the node furthest from all the
+		// landmarks picked so far, starting from the node furthest from the
+		// middle of the map. The middle is far more likely to be on the main
+		// network than an arbitrary node, which may be on some tiny island.
+		SearchContext ctx = new SearchContext(graph);
+		double[] nearest = new double[n];
+		Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+		int[] picked = new int[Math.min(count, n)];
+		int candidate = farthest(ctx, central(graph), nearest);
+		int found = 0;
+		while (found < picked.length && nearest[candidate] > 0) {
+			picked[found++] = candidate;
+			candidate = farthest(ctx, candidate, nearest);
+		}
+		this.count = found;
+		landmarks = Arrays.copyOf(picked, found);
+		from = new float[found * n];
+		to = new float[found * n];
+
+		// the costs back to each landmark need a backward search each, so
+		// do them (and redo the forward ones into the table) in parallel.
+		IntStream.range(0, found).parallel().forEach(i -> {
+			SearchContext own = new SearchContext(graph);
+			fill(own, landmarks[i], false, from, i * n);
+			fill(own, landmarks[i], true, to, i * n);
+		});
+
+		float max = 0;
+		for (float c : from)
+			if (c != Float.POSITIVE_INFINITY) max = Math.max(max, c);
+		slack = 2 * Math.ulp(max);
+	}
+
+	/**
+	 * @return how far the bounds for two neighbouring nodes can be from
+	 *         consistent because of float rounding.
+	 */
+	public double tolerance() {
+		return 2 * slack;
+	}
+
+	/**
+	 * @return a lower bound on the cost from node to goal, which is infinite
+	 *         if the tables show goal can't be reached from node at all.
+	 */
+	public double lowerBound(int node, int goal) {
+		final float INF = Float.POSITIVE_INFINITY;
+		int n = graph.size();
+		double best = 0;
+		for (int i = 0, base = 0; i < count; i++, base += n) {
+			float toGoal = from[base + goal], toNode = from[base + node];
+			float fromNode = to[base + node], fromGoal = to[base + goal];
+			// if L reaches node but not goal, or goal reaches L but node
+			// doesn't, then node can't reach goal. Otherwise a term with an
+			// infinite cost in it says nothing.
+			if (toNode != INF && toGoal == INF) return Double.POSITIVE_INFINITY;
+			if (fromGoal != INF && fromNode == INF) return Double.POSITIVE_INFINITY;
+			if (toGoal != INF && toNode != INF)
+				best = Math.max(best, (double) toGoal - toNode);
+			if (fromNode != INF && fromGoal != INF)
+				best = Math.max(best, (double) fromNode - fromGoal);
+		}
+		return Math.max(0, best - slack);
+	}
+
+	/**
+	 * @return the node closest to the average location of all the nodes.
+	 */
+	private static int central(RoutingGraph graph) {
+		double cx = 0, cy = 0;
+		for (int v = 0; v < graph.size(); v++) {
+			cx += graph.x[v];
+			cy += graph.y[v];
+		}
+		cx /= graph.size();
+		cy /= graph.size();
+		int best = 0;
+		for (int v = 1; v < graph.size(); v++) {
+			if (Math.hypot(graph.x[v] - cx, graph.y[v] - cy) < Math.hypot(graph.x[best] - cx, graph.y[best] - cy))
+				best = v;
+		}
+		return best;
+	}
+
+	/**
+	 * Runs Dijkstra from source, lowers nearest to the cost from source where
+	 * that's closer, and returns the reachable node with the largest nearest.
+	 */
+	private int farthest(SearchContext ctx, int source, double[] nearest) {
+		dijkstra(ctx, source, false);
+		int best = source;
+		double bestCost = -1;
+		for (int v = 0; v < nearest.length; v++) {
+			double d = ctx.dist(v);
+			if (d < nearest[v]) nearest[v] = d;
+			// nodes no landmark reaches yet can't be ranked.
+			if (nearest[v] != Double.POSITIVE_INFINITY && nearest[v] > bestCost) {
+				bestCost = nearest[v];
+				best = v;
+			}
+		}
+		return best;
+	}
+
+	private void fill(SearchContext ctx, int source, boolean backward, float[] table, int base) {
+		dijkstra(ctx, source, backward);
+		for (int v = 0; v < ctx.size(); v++)
+			table[base + v] = (float) ctx.dist(v);
+	}
+
+	/**
+	 * Plain Dijkstra from source to every node, following edges backward if
+	 * asked to.
+	 */
+	private void dijkstra(SearchContext ctx, int source, boolean backward) {
+		RoutingGraph rg = graph;
+		IndexedHeap fringe = ctx.fringe;
+		ctx.begin();
+		ctx.reach(source, 0, -1);
+		fringe.push(source, 0);
+		while (!fringe.isEmpty()) {
+			int current = fringe.poll();
+			ctx.settle(current);
+			double currentCost = ctx.dist(current);
+			int[] offsets = backward ? rg.reverseOffsets : rg.offsets;
+			for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+				int e = backward ? rg.reverseEdges[i] : i;
+				int next = backward ? rg.sources[e] : rg.targets[e];
+				double cost = currentCost + rg.cost(e, isTime);
+				if (ctx.isSettled(next) || cost >= ctx.dist(next)) continue;
+				ctx.reach(next, cost, e);
+				fringe.push(next, cost);
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * LevelOfDetail keeps the segments to draw at each of a few bands of zoom.
+ * When zoomed out, minor roads are left out by road class and type, and each
+ * segment's line is simplified with Douglas-Peucker to within half a pixel at
+ * the most zoomed-in scale of its band, so it looks the same but has fewer
+ * vertices to draw. Each band has its own SegmentIndex over just the segments
+ * it shows, so the work done to draw a frame depends on what's visible at
+ * that zoom rather than on the size of the map.
+ */
+public class LevelOfDetail {
+	// the smallest scale (pixels per km) each band is used at. The last band
+	// is the full map, unsimplified.
+	private static final double[] BAND_SCALES = { 0, 4, 16, 48 };
+	// the least important road class drawn in each band.
+	private static final int[] MIN_CLASS = { 3, 1, 0, 0 };
+	// bands below this leave out unpaved roads (10) and walkways (22).
+	private static final int MINOR_TYPE_BAND = 2;
+	// bands below this don't draw nodes, which would be a pixel or two.
+	private static final int NODE_BAND = 2;
+
+	private final SegmentIndex[] indexes;
+	// the line drawn for segment i of band b's index at [b][i].
+	private final Location[][][] points;
+
+	public LevelOfDetail(Collection<Segment> segments) {
+		int bands = BAND_SCALES.length;
+		indexes = new SegmentIndex[bands];
+		points = new Location[bands][][];
+		for (int b = 0; b < bands; b++) {
+			List<Segment> shown = new ArrayList<>();
+			for (Segment s : segments) {
+				if (isShown(b, s.road)) shown.add(s);
+			}
+			indexes[b] = new SegmentIndex(shown);
+			points[b] = new Location[shown.size()][];
+			double tolerance = b == bands - 1 ? 0 : 0.5 / BAND_SCALES[b + 1];
+			for (int i = 0; i < shown.size(); i++) {
+				Location[] line = indexes[b].segment(i).points;
+				points[b][i] = tolerance == 0 ? line : simplify(line, tolerance);
+			}
+		}
+	}
+
+	/**
+	 * @return the band to draw at the given scale.
+	 */
+	public int band(double scale) {
+		int b = 0;
+		while (b + 1 < BAND_SCALES.length && scale >= BAND_SCALES[b + 1])
+			b++;
+		return b;
+	}
+
+	public SegmentIndex index(int band) {
+		return indexes[band];
+	}
+
+	/**
+	 * @return the line to draw for segment i of the band's index.
+	 */
+	public Location[] points(int band, int i) {
+		return points[band][i];
+	}
+
+	public boolean showsNodes(int band) {
+		return band >= NODE_BAND;
+	}
+
+	private static boolean isShown(int band, Road road) {
+		if (road.roadClass < MIN_CLASS[band]) return false;
+		if (band < MINOR_TYPE_BAND && (road.type == 10 || road.type == 22)) return false;
+		return true;
+	}
+
+	/**
+	 * Douglas-Peucker: keeps the ends of the line, and then recursively the
+	 * point furthest from the line between the ends of each part, until every
+	 * point left out is within tolerance of the simplified line.
+	 */
+	static Location[] simplify(Location[] line, double tolerance) {
+		if (line.length <= 2) return line;
+		boolean[] keep = new boolean[line.length];
+		keep[0] = keep[line.length - 1] = true;
+		int kept = 2;
+		// ranges still to simplify, as pairs of end indices.
+		int[] stack = new int[2 * line.length];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = line.length - 1;
+		while (top > 0) {
+			int last = stack[--top], first = stack[--top];
+			int furthest = -1;
+			double furthestDist = tolerance;
+			for (int i = first + 1; i < last; i++) {
+				double d = distanceToLine(line[i], line[first], line[last]);
+				if (d > furthestDist) {
+					furthestDist = d;
+					furthest = i;
+				}
+			}
+			if (furthest < 0) continue;
+			keep[furthest] = true;
+			kept++;
+			stack[top++] = first;
+			stack[top++] = furthest;
+			stack[top++] = furthest;
+			stack[top++] = last;
+		}
+		if (kept == line.length) return line;
+		Location[] simplified = new Location[kept];
+		for (int i = 0, j = 0; i < line.length; i++) {
+			if (keep[i]) simplified[j++] = line[i];
+		}
+		return simplified;
+	}
+
+	/**
+	 * @return the distance from p to the line segment from a to b.
+	 */
+	private static double distanceToLine(Location p, Location a, Location b) {
+		double dx = b.x - a.x, dy = b.y - a.y;
+		double lengthSq = dx * dx + dy * dy;
+		double t = lengthSq == 0 ? 0 : ((p.x - a.x) * dx + (p.y - a.y) * dy) / lengthSq;
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(p.x - (a.x + t * dx), p.y - (a.y + t * dy));
+	}
+}
@@ -78,6 +78,18 @@ public class Location {
 		return new Location(x, y);
 	}
 
+	/**
+	 * The inverse of newFromLatLon, for writing locations out in the format
+	 * of the data files.
+	 *
+	 * @return the latitude and longitude, in that order.
+	 */
+	public double[] toLatLon() {
+		double lat = y / SCALE_LAT + CENTRE_LAT;
+		double lon = x / (SCALE_LAT * Math.cos((lat - CENTRE_LAT) * DEG_TO_RAD)) + CENTRE_LON;
+		return new double[] { lat, lon };
+	}
+
 	// ------------------------------------------
 	// some utility methods for Location objects
 	// ------------------------------------------
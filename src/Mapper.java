@@ -4,7 +4,15 @@ import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.event.MouseEvent;
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import javax.swing.SwingUtilities;
 
 /**
  * This is the main class for the mapping program. It extends the GUI abstract
@@ -34,6 +42,9 @@ public class Mapper extends GUI {
 	// how far away from a node you can click before it isn't counted.
 	public static final double MAX_CLICKED_DISTANCE = 0.15;
 
+	// how many road names the search box suggests.
+	public static final int MAX_SEARCH_RESULTS = 10;
+
 	// these two define the 'view' of the program, ie. where you're looking and
 	// how zoomed in you are.
 	private Location origin;
@@ -41,34 +52,53 @@ public class Mapper extends GUI {
 
 	// our data structures.
 	private Graph graph;
-
-	private Map<Node, List<Restriction>> restrictions;
+	// the segments and nodes of the graph, drawn in tiles in the background.
+	private TileRenderer tiles;
+
+	private RouteFinder routeFinder;
+	// the road names, for the search box, made on the first search.
+	private RoadIndex roadIndex;
+	// routes already found on this graph, so going back to one is instant.
+	private final RouteCache routeCache = new RouteCache();
+	// what each search did, shown over JMX, where its search space can also
+	// be switched on for drawing as visited nodes.
+	private final SearchMetrics metrics = new SearchMetrics();
+	// runs route searches off the event thread, so one that looks through
+	// the whole map doesn't freeze the window.
+	private final ExecutorService routeWorker = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "route search");
+		t.setDaemon(true);
+		return t;
+	});
+	// the route or reach search in progress, if any, and a count of the
+	// searches asked for, so one that's been overtaken by a newer request
+	// isn't shown.
+	// Only touched on the event thread.
+	private Future<?> routeSearch;
+	private int routeRequest;
 
 	// whether to calculate journey by time (true) or distance (false)
-	protected static boolean isTime = false;
+	private boolean isTime = false;
+	// which algorithm to search for routes with
+	private SearchMode searchMode = SearchMode.ASTAR;
 
 
 	@Override
 	protected void redraw(Graphics g) {
-		if (graph != null)
-			graph.draw(g, getDrawingAreaDimension(), origin, scale);
+		if (graph != null) {
+			Dimension area = getDrawingAreaDimension();
+			tiles.draw(g, area, origin, scale);
+			graph.drawOverlay(g, area, origin, scale);
+		}
 	}
 
 	@Override
 	protected void onClick(MouseEvent e) {
 		if (graph == null) return;
+		cancelRoute();
 		Location clicked = Location.newFromPoint(e.getPoint(), origin, scale);
 		// find the closest node.
-		double bestDist = Double.MAX_VALUE;
-		Node closest = null;
-
-		for (Node node : graph.nodes.values()) {
-			double distance = clicked.distance(node.location);
-			if (distance < bestDist) {
-				bestDist = distance;
-				closest = node;
-			}
-		}
+		Node closest = graph.findNearest(clicked);
 
 		// if it's close enough, highlight it and show some information.
 		if (clicked.distance(closest.location) < MAX_CLICKED_DISTANCE) {
@@ -79,7 +109,6 @@ public class Mapper extends GUI {
 		// start selected and goal not selected
 		if (graph.start != null && graph.goal == null) {
 			graph.goal = closest;
-			graph.goal.prev = null; // ensure the goal hasn't been found
 			if (graph.goal == graph.start) {
 				getTextOutputArea().setText("No journey possible if same nodes are selected.");
 			} else {
@@ -93,101 +122,92 @@ public class Mapper extends GUI {
 	}
 
 	/**
-	 * Implements A* search over graph, taking into account one-way streets.
+	 * Finds the route between the selected nodes, highlights it on the GUI
+	 * and displays information about the determined journey. A route that
+	 * isn't cached is searched for on the route worker, cancelling any search
+	 * still running, and shown once it's found.
 	 */
 	private void findRoute() {
-		PriorityQueue<FringeElement> fringe = new PriorityQueue<>();
-		Set<Node> visited = new HashSet<>();
-		fringe.add(new FringeElement(graph.start, null, heuristic(graph.start), 0));
-		while (!fringe.isEmpty()) {
-			FringeElement current = fringe.poll();
-			Node currentNode = current.getNode();
-			if (!visited.contains(currentNode)) {
-				visited.add(currentNode);
-				currentNode.prev = current.getPrev();
-
-				if (currentNode.equals(graph.goal)) break;
-
-				segmentLoop:
-				for (Segment s : currentNode.segments) {
-					Node next = null;
-					if (s.start.equals(currentNode)) {
-						next = s.end;
-					} else if (s.road.oneWay == 0) { // if not one-way, allow backwards direction
-						next = s.start;
-					}
-
-					if (next != null && !visited.contains(next)) {
-						if (restrictions.containsKey(currentNode)) {
-							for (Restriction r : restrictions.get(currentNode)) {
-								if (r.notAllowed(currentNode.prev, currentNode, next, s.road)) continue segmentLoop;
-							}
-						}
-
-						double costSoFar = current.getCostSoFar();
-
-						if (isTime) costSoFar += s.length/s.road.getSpeed(true);
-						else costSoFar += s.length;
-
-						double estCost = costSoFar + heuristic(next);
-						assert current.getEstCost() <= estCost : "Inconsistent heuristic";
-						fringe.add(new FringeElement(next, currentNode, estCost, costSoFar));
-					}
-				}
-			}
+		cancelRoute();
+		// a cached route has no search to show, so don't use it when the
+		// search space is wanted.
+		boolean sampling = metrics.getSearchSpaceSampling() > 0;
+		Route cached = sampling ? null : routeCache.get(graph.start.index, graph.goal.index, isTime, searchMode);
+		if (cached != null) {
+			showRoute(cached, searchMode, new HashSet<>(), true);
+			return;
 		}
 
-		constructPath();
+		// everything the search needs, as it is now.
+		Graph graph = this.graph;
+		RouteFinder finder = routeFinder;
+		int start = graph.start.index, goal = graph.goal.index;
+		boolean isTime = this.isTime;
+		SearchMode mode = searchMode;
+		long generation = routeCache.generation(isTime);
+		submitSearch(() -> {
+			Set<Node> searched = new HashSet<>();
+			Route route = finder.findRoute(start, goal, isTime, mode, v -> searched.add(graph.routing.nodes[v]));
+			routeCache.put(route, mode, generation);
+			return () -> showRoute(route, mode, searched, false);
+		});
 	}
 
 	/**
-	 * Constructs path of Roads starting from the goal back to the finish, and
-	 * highlights it on the GUI and displays information about determined journey.
+	 * Runs search on the route worker, and then the action it returns on the
+	 * event thread to show what it found, unless a newer request has been
+	 * made by then. The text area says it's searching meanwhile. The caller
+	 * cancels whatever was running before.
 	 */
-	private void constructPath() {
-		List<Road> path = new ArrayList<>();
-		graph.setHighlight(path);
-		Node current = graph.goal;
-		double total = 0.0;
-		while (!current.equals(graph.start)) {
-			for (Segment s : current.segments) {
-				if (s.start.equals(current.prev) || s.end.equals(current.prev)) {
-					if (isTime) total += s.length / s.road.getSpeed(false);
-					else total += s.length;
-
-					Road newRd = s.road.copyOf();
-					newRd.addSegment(s);
-					if (path.isEmpty()) {
-						path.add(newRd);
-					} else {
-						Road currentRd = path.get(path.size()-1);
-						if (s.road.equals(currentRd)) {
-							currentRd.addSegment(s);
-						} else {
-							path.add(newRd);
-						}
-					}
-					break;
-				}
-			}
-			current = current.prev;
-			if (current == null) {
-				path.clear();
-				getTextOutputArea().append("No path found.");
-				return;
+	private void submitSearch(Supplier<Runnable> search) {
+		int request = routeRequest;
+		String text = getTextOutputArea().getText();
+		getTextOutputArea().append("Searching...\n");
+		routeSearch = routeWorker.submit(() -> {
+			try {
+				Runnable show = search.get();
+				SwingUtilities.invokeLater(() -> {
+					if (request != routeRequest) return;
+					routeSearch = null;
+					getTextOutputArea().setText(text);
+					show.run();
+					redraw();
+				});
+			} catch (CancellationException e) {
+				// a newer request has taken over.
+			} catch (Throwable e) {
+				// errors too, such as running out of memory, or the search would
+				// be left saying it's searching; the future would swallow them.
+				SwingUtilities.invokeLater(() -> {
+					if (request != routeRequest) return;
+					routeSearch = null;
+					getTextOutputArea().setText(text + "Could not search: " + e + "\n");
+				});
 			}
-		}
-		Collections.reverse(path);
-		for (Road r : path) {
-			getTextOutputArea().append(" - "+r.toString());
-		}
-		if (Mapper.isTime) getTextOutputArea().append("Total time: "+parseTime(total));
-		else getTextOutputArea().append(String.format("Total distance: %.3f km\n", total));
+		});
+	}
+
+	/**
+	 * Highlights route, found by the given mode of search, and appends its
+	 * description to the text area.
+	 */
+	private void showRoute(Route route, SearchMode mode, Set<Node> searched, boolean cached) {
+		graph.setVisited(searched);
+		graph.setHighlight(route.roads());
+		getTextOutputArea().append(route.describe());
+		if (cached) getTextOutputArea().append("\n(from the route cache)\n");
+		else getTextOutputArea().append(String.format("\n(%s search settled %d labels)\n",
+				mode, route.settled));
 	}
 
-	private double heuristic(Node n) {
-		if (isTime) return n.location.distance(graph.goal.location)/Road.MAX_SPEED;
-		return n.location.distance(graph.goal.location);
+	/**
+	 * Cancels the route or reach search in progress, if there is one, and
+	 * makes sure what it finds is never shown.
+	 */
+	private void cancelRoute() {
+		routeRequest++;
+		if (routeSearch != null) routeSearch.cancel(true);
+		routeSearch = null;
 	}
 
 	public static String parseTime(double h) {
@@ -215,9 +235,65 @@ public class Mapper extends GUI {
 		}
 	}
 
+	@Override
+	protected void onSearchModeChange(SearchMode newMode) {
+		if (newMode == searchMode) return;
+		searchMode = newMode;
+		if (graph == null || graph.goal == null) return;
+		getTextOutputArea().setText("Journey from "+graph.start.toString()+" to "+graph.goal.toString()+":\n");
+		findRoute();
+	}
+
+	@Override
+	protected void onReach(double budget) {
+		if (graph == null) return;
+		if (graph.start == null) {
+			getTextOutputArea().setText("Click on a node to reach out from first.");
+			return;
+		}
+		cancelRoute();
+		// a hierarchy sweep may have to build the hierarchy first, so this
+		// runs on the route worker too.
+		RouteFinder finder = routeFinder;
+		Node start = graph.start;
+		boolean isTime = this.isTime;
+		SearchMode mode = searchMode;
+		double limit = isTime ? budget / 60 : budget;
+		getTextOutputArea().setText("");
+		submitSearch(() -> {
+			Isochrone reached = finder.isochrone(start.index, limit, isTime, mode);
+			Set<Node> nodes = reached.reachedNodes();
+			int leadingOut = reached.boundarySegments().size();
+			return () -> {
+				graph.setHighlight(new HashSet<>());
+				graph.setVisited(nodes);
+				getTextOutputArea().setText(String.format("%d nodes within %s of %s, %d roads leading out.\n",
+						reached.size(), isTime ? budget + " minutes" : budget + " km", start, leadingOut));
+			};
+		});
+	}
+
 	@Override
 	protected void onSearch() {
-		// Does nothing
+		if (graph == null) return;
+		String text = getSearchBox().getText();
+		if (text.trim().isEmpty()) return;
+		if (roadIndex == null) roadIndex = new RoadIndex(graph.roads.values());
+		// the search results replace the route, so stop looking for it.
+		cancelRoute();
+		List<RoadIndex.Match> matches = roadIndex.search(text, MAX_SEARCH_RESULTS);
+		if (matches.isEmpty()) {
+			getTextOutputArea().setText("No roads named \"" + text.trim() + "\".");
+			return;
+		}
+		// the best match is highlighted, and the rest listed after it.
+		RoadIndex.Match best = matches.get(0);
+		graph.setHighlight(best.roads());
+		StringBuilder str = new StringBuilder();
+		for (RoadIndex.Match match : matches)
+			str.append(match).append('\n');
+		if (matches.size() == MAX_SEARCH_RESULTS) str.append("...\n");
+		getTextOutputArea().setText(str.toString());
 	}
 
 	@Override
@@ -248,11 +324,31 @@ public class Mapper extends GUI {
 
 	@Override
 	protected void onLoad(File nodes, File roads, File segments, File polygons, File rests) {
-		graph = new Graph(nodes, roads, segments, polygons);
+		onLoad(new Graph(nodes, roads, segments, polygons, rests));
+	}
+
+	@Override
+	protected void onLoadSnapshot(File snapshot, File polygons) {
+		try {
+			Graph graph = GraphSnapshot.load(snapshot);
+			if (polygons != null) graph.polygons = Parser.parsePolygons(polygons, graph);
+			onLoad(graph);
+		} catch (IOException e) {
+			getTextOutputArea().setText("Could not load " + snapshot + ": " + e.getMessage());
+		}
+	}
+
+	private void onLoad(Graph graph) {
+		cancelRoute();
+		this.graph = graph;
+		if (tiles != null) tiles.shutdown();
+		tiles = new TileRenderer(graph, TileRenderer.DEFAULT_CACHE_BYTES, this::redraw);
+		routeFinder = new RouteFinder(graph.routing);
+		routeFinder.setMetrics(metrics);
+		routeCache.clear();
+		roadIndex = null;
 		origin = new Location(-6, 0); // close enough
 		scale = 85;
-		if (rests != null) restrictions = Parser.parseRestrictions(rests, graph);
-		else restrictions = new HashMap<>();
 		getTextOutputArea().setText("Click on a node to set the starting position, click again to set the goal position.");
 	}
 
@@ -274,7 +370,8 @@ public class Mapper extends GUI {
 	}
 
 	public static void main(String[] args) {
-		new Mapper();
+		Mapper mapper = new Mapper();
+		mapper.metrics.register("mapper");
 	}
 }
 
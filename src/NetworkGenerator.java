@@ -0,0 +1,409 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * NetworkGenerator writes a synthetic road network in the same .tab files the
+ * GUI loads, for trying the program on maps far larger than Auckland. Run it
+ * as
+ *
+ * <pre>
+ * java NetworkGenerator &lt;output directory&gt; &lt;nodes&gt; [--seed n] [--oneway share] [--restrictions share]
+ * </pre>
+ *
+ * The network is a grid of local streets about 100m apart, some of them
+ * one-way and some blocks missing, crossed every few blocks by arterials,
+ * principal highways and motorways with faster speed limits and higher road
+ * classes. Prohibited turns are added at a share of the crossings of the
+ * bigger roads, and at a few local intersections.
+ *
+ * Everything about a node, road or segment is worked out from its position in
+ * the grid and the seed, with a hash rather than a stream of random numbers,
+ * so each file is written in one pass with nothing held in memory, however
+ * many nodes are asked for. The same seed and size always give the same
+ * files.
+ */
+public class NetworkGenerator {
+	public static final long DEFAULT_SEED = 261;
+	public static final double DEFAULT_ONEWAY = 0.1, DEFAULT_RESTRICTIONS = 0.25;
+	// a local intersection's chance of a prohibited turn, and a local
+	// block's chance of not being there.
+	private static final double LOCAL_RESTRICTIONS = 0.005, MISSING_BLOCKS = 0.06;
+	// the share of local blocks that bend, with a point off to one side.
+	private static final double BENT_BLOCKS = 0.2;
+	// the roads along a grid line are split into road objects this many
+	// blocks long, as real roads are split where their properties change.
+	private static final int SPAN = 16;
+
+	// the south west corner, and the spacing of the grid in degrees, which
+	// is about 100m each way at this latitude.
+	private static final double LAT0 = -37.2, LON0 = 174.4;
+	private static final double DLAT = 0.0009, DLON = 0.00113;
+
+	private static final String[] SYLLABLES = { "ka", "ro", "wai", "ta", "ma", "ri", "ho", "ne", "pu", "ki", "te",
+			"mo", "whe", "nui", "ra", "to", "hi", "ko", "pa", "ru", "tai", "rangi", "wha", "ngi" };
+	private static final String[] LOCAL_SUFFIXES = { "st", "rd", "ave", "pl", "cres", "tce", "dr", "lane" };
+	private static final String[] CITIES = { "auckland", "manukau", "waitakere", "north shore", "papakura",
+			"pukekohe", "howick", "albany", "henderson", "otahuhu", "orewa", "warkworth" };
+
+	private final long seed;
+	private final int width, height;
+	private final double oneWayShare, restrictionShare;
+	private final int spansPerRow, spansPerColumn;
+
+	private long roads, segments, restrictions;
+
+	/**
+	 * Sets up a grid width nodes wide and height nodes high.
+	 */
+	public NetworkGenerator(long seed, int width, int height, double oneWayShare, double restrictionShare) {
+		if (width < 2 || height < 2) throw new IllegalArgumentException("the grid must be at least 2x2");
+		if ((long) width * height > Integer.MAX_VALUE) throw new IllegalArgumentException("too many nodes");
+		this.seed = seed;
+		this.width = width;
+		this.height = height;
+		this.oneWayShare = oneWayShare;
+		this.restrictionShare = restrictionShare;
+		spansPerRow = (width - 1 + SPAN - 1) / SPAN;
+		spansPerColumn = (height - 1 + SPAN - 1) / SPAN;
+	}
+
+	/**
+	 * Writes the four .tab files into dir, making it if need be.
+	 */
+	public void write(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("could not make " + dir);
+		try (Writer out = open(new File(dir, "nodeID-lat-lon.tab"))) {
+			writeNodes(out);
+		}
+		try (Writer out = open(new File(dir, "roadID-roadInfo.tab"))) {
+			writeRoads(out);
+		}
+		try (Writer out = open(new File(dir, "roadSeg-roadID-length-nodeID-nodeID-coords.tab"))) {
+			writeSegments(out);
+		}
+		try (Writer out = open(new File(dir, "restrictions.tab"))) {
+			writeRestrictions(out);
+		}
+	}
+
+	private static Writer open(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	// grid lines: rows run east-west, columns north-south. Row r is at
+	// latitude LAT0 + r * DLAT, so north is up the rows.
+
+	/**
+	 * @return the road class of a row or column: every 256th line is a
+	 *         motorway, every 64th a principal highway, every 8th an
+	 *         arterial and every 4th a collector.
+	 */
+	private static int lineClass(int i) {
+		if (i % 256 == 128) return 4;
+		if (i % 64 == 32) return 3;
+		if (i % 8 == 4) return 2;
+		if (i % 4 == 2) return 1;
+		return 0;
+	}
+
+	private int nodeID(int r, int c) {
+		return r * width + c + 1;
+	}
+
+	private double lat(int r, int c) {
+		// the bigger roads run straight, the local streets wander a little.
+		double jitter = lineClass(r) > 0 ? 0 : (random(1, r, c) - 0.5) * 0.2 * DLAT;
+		return LAT0 + r * DLAT + jitter;
+	}
+
+	private double lon(int r, int c) {
+		double jitter = lineClass(c) > 0 ? 0 : (random(2, r, c) - 0.5) * 0.2 * DLON;
+		return LON0 + c * DLON + jitter;
+	}
+
+	private void writeNodes(Writer out) throws IOException {
+		StringBuilder line = new StringBuilder(64);
+		for (int r = 0; r < height; r++) {
+			for (int c = 0; c < width; c++) {
+				line.setLength(0);
+				line.append(nodeID(r, c)).append('\t');
+				appendFixed(line, lat(r, c));
+				line.append('\t');
+				appendFixed(line, lon(r, c));
+				out.append(line).append('\n');
+			}
+		}
+	}
+
+	/**
+	 * @return the ID of the road object the block east of (r, c) belongs to.
+	 */
+	private int rowRoad(int r, int c) {
+		return 1 + r * spansPerRow + c / SPAN;
+	}
+
+	/**
+	 * @return the ID of the road object the block north of (r, c) belongs to.
+	 */
+	private int columnRoad(int r, int c) {
+		return 1 + height * spansPerRow + c * spansPerColumn + r / SPAN;
+	}
+
+	private void writeRoads(Writer out) throws IOException {
+		out.write("roadid\ttype\tlabel\tcity\toneway\tspeed\troadclass\tnotforcar\tnotforpede\tnotforbicy\n");
+		StringBuilder line = new StringBuilder(128);
+		for (int r = 0; r < height; r++) {
+			for (int span = 0; span < spansPerRow; span++)
+				writeRoad(out, line, rowRoad(r, span * SPAN), r, span, r, span * SPAN);
+		}
+		for (int c = 0; c < width; c++) {
+			for (int span = 0; span < spansPerColumn; span++)
+				writeRoad(out, line, columnRoad(span * SPAN, c), c, span, span * SPAN, c);
+		}
+	}
+
+	/**
+	 * Writes the road object for one span of grid line i, which starts at
+	 * (r, c).
+	 */
+	private void writeRoad(Writer out, StringBuilder line, int roadID, int i, int span, int r, int c)
+			throws IOException {
+		int roadClass = lineClass(i);
+		line.setLength(0);
+		line.append(roadID).append('\t').append(roadType(roadID, roadClass)).append('\t');
+		appendName(line, roadID == rowRoad(r, c), i, roadClass);
+		line.append('\t').append(CITIES[(int) (random(3, r / 128, c / 128) * CITIES.length)]);
+		line.append('\t').append(isOneWay(roadID) ? 1 : 0);
+		line.append('\t').append(speed(roadID, roadClass));
+		line.append('\t').append(roadClass);
+		// motorways are no place for walking or cycling.
+		line.append(roadClass == 4 ? "\t0\t1\t1\n" : "\t0\t0\t0\n");
+		out.append(line);
+		roads++;
+	}
+
+	private void appendName(StringBuilder line, boolean isRow, int i, int roadClass) {
+		// every road object on one grid line has the same name.
+		long h = hash(isRow ? 4 : 5, i, 0);
+		int syllables = 2 + (int) ((h >>> 60) & 1);
+		for (int k = 0; k < syllables; k++)
+			line.append(SYLLABLES[(int) ((h >>> (8 * k)) & 0xff) % SYLLABLES.length]);
+		switch (roadClass) {
+			case 4:
+				line.append(" motorway");
+				break;
+			case 3:
+				line.append(" hwy");
+				break;
+			case 2:
+				line.append(" rd");
+				break;
+			default:
+				line.append(' ').append(LOCAL_SUFFIXES[(int) ((h >>> 40) & 0xff) % LOCAL_SUFFIXES.length]);
+		}
+	}
+
+	private int roadType(int roadID, int roadClass) {
+		switch (roadClass) {
+			case 4:
+				return 1;
+			case 3:
+				return 2;
+			case 2:
+				return 4;
+			case 1:
+				return 5;
+			default:
+				// the slowest local roads are lanes, which aren't drawn far out.
+				return speed(roadID, roadClass) == 1 ? 22 : 6;
+		}
+	}
+
+	/**
+	 * @return the speed limit category of a road, as in the data README.
+	 */
+	private int speed(int roadID, int roadClass) {
+		double x = random(6, roadID, 0);
+		switch (roadClass) {
+			case 4:
+				return 6;
+			case 3:
+				return 5;
+			case 2:
+				return x < 0.7 ? 3 : 4;
+			case 1:
+				return x < 0.8 ? 3 : 2;
+			default:
+				return x < 0.1 ? 1 : x < 0.9 ? 2 : 3;
+		}
+	}
+
+	private boolean isOneWay(int roadID) {
+		// only the smaller roads are ever one-way.
+		int roadClass = roadID <= height * spansPerRow ? lineClass((roadID - 1) / spansPerRow)
+				: lineClass((roadID - 1 - height * spansPerRow) / spansPerColumn);
+		return roadClass <= 1 && random(7, roadID, 0) < oneWayShare;
+	}
+
+	/**
+	 * @return whether the block east of (r, c), or north of it, is there.
+	 */
+	private boolean hasBlock(int r, int c, boolean isRow) {
+		if (isRow ? c + 1 >= width : r + 1 >= height) return false;
+		if (lineClass(isRow ? r : c) > 0) return true;
+		return random(isRow ? 8 : 9, r, c) >= MISSING_BLOCKS;
+	}
+
+	private void writeSegments(Writer out) throws IOException {
+		out.write("roadID\tlength\tnodeID1\tnodeID2\tcoords\n");
+		StringBuilder line = new StringBuilder(160);
+		for (int r = 0; r < height; r++) {
+			for (int c = 0; c < width; c++) {
+				if (hasBlock(r, c, true)) writeSegment(out, line, rowRoad(r, c), r, c, r, c + 1);
+				if (hasBlock(r, c, false)) writeSegment(out, line, columnRoad(r, c), r, c, r + 1, c);
+			}
+		}
+	}
+
+	private void writeSegment(Writer out, StringBuilder line, int roadID, int r1, int c1, int r2, int c2)
+			throws IOException {
+		// a one-way road runs from its first node to its second, and the
+		// one-way local streets go either way, one direction to a road.
+		if (isOneWay(roadID) && random(10, roadID, 0) < 0.5) {
+			int r = r1, c = c1;
+			r1 = r2;
+			c1 = c2;
+			r2 = r;
+			c2 = c;
+		}
+		double lat1 = lat(r1, c1), lon1 = lon(r1, c1), lat2 = lat(r2, c2), lon2 = lon(r2, c2);
+		boolean isBent = lineClass(r1 == r2 ? r1 : c1) == 0 && random(11, r1 + r2, c1 + c2) < BENT_BLOCKS;
+		double midLat = (lat1 + lat2) / 2, midLon = (lon1 + lon2) / 2;
+		if (isBent) {
+			// off to one side, square to the block.
+			double off = (random(12, r1 + r2, c1 + c2) - 0.5) * 0.3;
+			if (r1 == r2) midLat += off * DLAT;
+			else midLon += off * DLON;
+		}
+		double length = isBent ? km(lat1, lon1, midLat, midLon) + km(midLat, midLon, lat2, lon2)
+				: km(lat1, lon1, lat2, lon2);
+
+		line.setLength(0);
+		line.append(roadID).append('\t').append(length).append('\t');
+		line.append(nodeID(r1, c1)).append('\t').append(nodeID(r2, c2));
+		appendPoint(line, lat1, lon1);
+		if (isBent) appendPoint(line, midLat, midLon);
+		appendPoint(line, lat2, lon2);
+		out.append(line).append('\n');
+		segments++;
+	}
+
+	private void writeRestrictions(Writer out) throws IOException {
+		out.write("NodeID\tRoadID\tNodeID\tRoadID\tNodeID\n");
+		StringBuilder line = new StringBuilder(64);
+		for (int r = 0; r + 1 < height; r++) {
+			for (int c = 1; c < width; c++) {
+				boolean isMajor = lineClass(r) >= 2 && lineClass(c) >= 2;
+				double share = isMajor ? restrictionShare : LOCAL_RESTRICTIONS;
+				if (random(13, r, c) >= share) continue;
+				// no left turn arriving from the west, or for local streets
+				// sometimes no right turn either.
+				if (!hasBlock(r, c - 1, true) || !hasBlock(r, c, false)) continue;
+				int nextR = r + 1, nextC = c;
+				if (!isMajor && r > 0 && hasBlock(r - 1, c, false) && random(14, r, c) < 0.5) nextR = r - 1;
+				int nextRoad = nextR > r ? columnRoad(r, c) : columnRoad(r - 1, c);
+				line.setLength(0);
+				line.append(nodeID(r, c - 1)).append('\t').append(rowRoad(r, c - 1)).append('\t');
+				line.append(nodeID(r, c)).append('\t').append(nextRoad).append('\t');
+				line.append(nodeID(nextR, nextC)).append('\n');
+				out.append(line);
+				restrictions++;
+			}
+		}
+	}
+
+	/**
+	 * @return the distance between two points as Location measures it, from
+	 *         the coordinates as they're written out. Segments are then never
+	 *         shorter than the straight line between their ends, which the
+	 *         route search's estimates rely on.
+	 */
+	private static double km(double lat1, double lon1, double lat2, double lon2) {
+		Location from = Location.newFromLatLon(asWritten(lat1), asWritten(lon1));
+		return from.distance(Location.newFromLatLon(asWritten(lat2), asWritten(lon2)));
+	}
+
+	private static double asWritten(double d) {
+		return Math.round(d * 1e6) / 1e6;
+	}
+
+	private static void appendPoint(StringBuilder line, double lat, double lon) {
+		line.append('\t');
+		appendFixed(line, lat);
+		line.append('\t');
+		appendFixed(line, lon);
+	}
+
+	/**
+	 * Appends d to six decimal places, as the node file has them, without
+	 * going through String.format, which would be most of the run time.
+	 */
+	private static void appendFixed(StringBuilder line, double d) {
+		long micro = Math.round(Math.abs(d) * 1e6);
+		if (d < 0 && micro != 0) line.append('-');
+		line.append(micro / 1_000_000).append('.');
+		long fraction = micro % 1_000_000;
+		for (long digit = 100_000; digit > fraction && digit > 1; digit /= 10)
+			line.append('0');
+		line.append(fraction);
+	}
+
+	/**
+	 * @return a number in [0, 1) that depends only on the seed and its
+	 *         arguments.
+	 */
+	private double random(int kind, long a, long b) {
+		return (hash(kind, a, b) >>> 11) * 0x1.0p-53;
+	}
+
+	private long hash(int kind, long a, long b) {
+		// the splitmix64 finaliser, over a mix of the arguments.
+		long z = seed + kind * 0x9E3779B97F4A7C15L + a * 0xC2B2AE3D27D4EB4FL + b * 0x165667B19E3779F9L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	public static void main(String[] args) throws IOException {
+		File dir = null;
+		long nodes = -1, seed = DEFAULT_SEED;
+		double oneWay = DEFAULT_ONEWAY, restrictions = DEFAULT_RESTRICTIONS;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--seed") && i + 1 < args.length) seed = Long.parseLong(args[++i]);
+			else if (args[i].equals("--oneway") && i + 1 < args.length) oneWay = Double.parseDouble(args[++i]);
+			else if (args[i].equals("--restrictions") && i + 1 < args.length) restrictions = Double.parseDouble(args[++i]);
+			else if (dir == null) dir = new File(args[i]);
+			else nodes = Long.parseLong(args[i].replace("_", ""));
+		}
+		if (dir == null || nodes < 4) {
+			System.err.println("usage: java NetworkGenerator <output directory> <nodes> [--seed n] [--oneway share]"
+					+ " [--restrictions share]");
+			System.exit(1);
+		}
+
+		// as near square as the node count allows.
+		int width = (int) Math.ceil(Math.sqrt(nodes));
+		int height = (int) Math.ceil((double) nodes / width);
+		NetworkGenerator generator = new NetworkGenerator(seed, width, height, oneWay, restrictions);
+		long t0 = System.nanoTime();
+		generator.write(dir);
+		System.out.printf("wrote %d nodes (%d x %d), %d roads, %d segments and %d restrictions to %s in %.1f s%n",
+				(long) width * height, width, height, generator.roads, generator.segments, generator.restrictions,
+				dir, (System.nanoTime() - t0) / 1e9);
+	}
+}
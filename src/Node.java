@@ -18,11 +18,16 @@ public class Node {
 	public final int nodeID;
 	public final Location location;
 	public final Collection<Segment> segments;
-	public Node prev;
+	// position of this node in the RoutingGraph arrays.
+	int index = -1;
 
 	public Node(int nodeID, double lat, double lon) {
+		this(nodeID, Location.newFromLatLon(lat, lon));
+	}
+
+	public Node(int nodeID, Location location) {
 		this.nodeID = nodeID;
-		this.location = Location.newFromLatLon(lat, lon);
+		this.location = location;
 		this.segments = new HashSet<>();
 	}
 
@@ -0,0 +1,188 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * NodeIndex is a static k-d tree over the node locations of a RoutingGraph,
+ * built once at load time, for finding the nodes nearest a point in
+ * logarithmic time rather than by scanning every node.
+ *
+ * The tree is implicit: the node indices are arranged so that the node in
+ * the middle of any range [lo, hi) splits the rest of that range on x (at even
+ * depths) or y (at odd depths), with smaller coordinates to its left. The
+ * index never changes after it's built, so a batch caller can snap points to
+ * nodes at high volume from any number of threads.
+ */
+public class NodeIndex {
+	private final double[] x, y;
+	private final int[] tree;
+
+	public NodeIndex(RoutingGraph graph) {
+		x = graph.x;
+		y = graph.y;
+		tree = new int[graph.size()];
+		for (int i = 0; i < tree.length; i++)
+			tree[i] = i;
+		build(0, tree.length, 0);
+	}
+
+	private void build(int lo, int hi, int depth) {
+		if (hi - lo <= 1) return;
+		int mid = (lo + hi) >>> 1;
+		select(lo, hi - 1, mid, (depth & 1) == 0 ? x : y);
+		build(lo, mid, depth + 1);
+		build(mid + 1, hi, depth + 1);
+	}
+
+	/**
+	 * Quickselect: rearranges tree[lo..hi] so that position k holds the node
+	 * that would be there if sorted by the given coordinate.
+	 */
+	private void select(int lo, int hi, int k, double[] coord) {
+		while (lo < hi) {
+			double pivot = coord[tree[(lo + hi) >>> 1]];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (coord[tree[i]] < pivot) i++;
+				while (coord[tree[j]] > pivot) j--;
+				if (i <= j) {
+					int t = tree[i];
+					tree[i++] = tree[j];
+					tree[j--] = t;
+				}
+			}
+			if (k <= j) hi = j;
+			else if (k >= i) lo = i;
+			else return;
+		}
+	}
+
+	/**
+	 * @return the RoutingGraph index of the node nearest (px, py), or -1 if
+	 *         there are no nodes.
+	 */
+	public int nearest(double px, double py) {
+		int[] best = { -1 };
+		double[] bestDist = { Double.POSITIVE_INFINITY };
+		nearest(px, py, 0, tree.length, 0, best, bestDist);
+		return best[0];
+	}
+
+	private void nearest(double px, double py, int lo, int hi, int depth, int[] best, double[] bestDist) {
+		if (lo >= hi) return;
+		int mid = (lo + hi) >>> 1;
+		int node = tree[mid];
+		double d = sq(x[node] - px) + sq(y[node] - py);
+		if (d < bestDist[0]) {
+			bestDist[0] = d;
+			best[0] = node;
+		}
+		double diff = (depth & 1) == 0 ? px - x[node] : py - y[node];
+		// look on the side of the split the point is on first, then the other
+		// side only if the split line is closer than the best so far.
+		if (diff < 0) {
+			nearest(px, py, lo, mid, depth + 1, best, bestDist);
+			if (diff * diff < bestDist[0]) nearest(px, py, mid + 1, hi, depth + 1, best, bestDist);
+		} else {
+			nearest(px, py, mid + 1, hi, depth + 1, best, bestDist);
+			if (diff * diff < bestDist[0]) nearest(px, py, lo, mid, depth + 1, best, bestDist);
+		}
+	}
+
+	/**
+	 * @return the RoutingGraph indices of the k nodes nearest (px, py),
+	 *         closest first. Fewer are returned if there aren't k nodes, and
+	 *         none if k isn't positive.
+	 */
+	public int[] nearest(double px, double py, int k) {
+		k = Math.min(k, tree.length);
+		if (k <= 0) return new int[0];
+		// a max-heap on distance of the best k found so far, so the worst of
+		// them is always on top to be compared against and replaced.
+		int[] heap = new int[k];
+		double[] dist = new double[k];
+		int size = nearest(px, py, 0, tree.length, 0, heap, dist, 0);
+
+		// heapsort the result into ascending order of distance.
+		for (int end = size - 1; end > 0; end--) {
+			swap(heap, dist, 0, end);
+			siftDown(heap, dist, 0, end);
+		}
+		return Arrays.copyOf(heap, size);
+	}
+
+	private int nearest(double px, double py, int lo, int hi, int depth, int[] heap, double[] dist, int size) {
+		if (lo >= hi) return size;
+		int mid = (lo + hi) >>> 1;
+		int node = tree[mid];
+		double d = sq(x[node] - px) + sq(y[node] - py);
+		if (size < heap.length) {
+			heap[size] = node;
+			dist[size] = d;
+			siftUp(heap, dist, size++);
+		} else if (d < dist[0]) {
+			heap[0] = node;
+			dist[0] = d;
+			siftDown(heap, dist, 0, size);
+		}
+		double diff = (depth & 1) == 0 ? px - x[node] : py - y[node];
+		int nearLo = diff < 0 ? lo : mid + 1, nearHi = diff < 0 ? mid : hi;
+		int farLo = diff < 0 ? mid + 1 : lo, farHi = diff < 0 ? hi : mid;
+		size = nearest(px, py, nearLo, nearHi, depth + 1, heap, dist, size);
+		if (size < heap.length || diff * diff < dist[0])
+			size = nearest(px, py, farLo, farHi, depth + 1, heap, dist, size);
+		return size;
+	}
+
+	/**
+	 * Passes the RoutingGraph index of every node in the rectangle from (x0,
+	 * y0) to (x1, y1) to action.
+	 */
+	public void forEachInRange(double x0, double y0, double x1, double y1, IntConsumer action) {
+		range(0, tree.length, 0, x0, y0, x1, y1, action);
+	}
+
+	private void range(int lo, int hi, int depth, double x0, double y0, double x1, double y1, IntConsumer action) {
+		if (lo >= hi) return;
+		int mid = (lo + hi) >>> 1;
+		int node = tree[mid];
+		if (x[node] >= x0 && x[node] <= x1 && y[node] >= y0 && y[node] <= y1) action.accept(node);
+		boolean onX = (depth & 1) == 0;
+		double split = onX ? x[node] : y[node];
+		// equal coordinates can be on either side of the split.
+		if ((onX ? x0 : y0) <= split) range(lo, mid, depth + 1, x0, y0, x1, y1, action);
+		if ((onX ? x1 : y1) >= split) range(mid + 1, hi, depth + 1, x0, y0, x1, y1, action);
+	}
+
+	private static void siftUp(int[] heap, double[] dist, int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (dist[parent] >= dist[i]) return;
+			swap(heap, dist, i, parent);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, double[] dist, int i, int size) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) return;
+			if (child + 1 < size && dist[child + 1] > dist[child]) child++;
+			if (dist[i] >= dist[child]) return;
+			swap(heap, dist, i, child);
+			i = child;
+		}
+	}
+
+	private static void swap(int[] heap, double[] dist, int i, int j) {
+		int h = heap[i];
+		heap[i] = heap[j];
+		heap[j] = h;
+		double d = dist[i];
+		dist[i] = dist[j];
+		dist[j] = d;
+	}
+
+	private static double sq(double d) {
+		return d * d;
+	}
+}
@@ -1,189 +1,404 @@
-import java.io.*;
-import java.nio.file.*;
-import java.util.*;
-import java.util.function.*;
-import java.util.stream.*;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
- * This is the Stream version of the Parser.java file. 
- * The two files are essentially the same, so feel free to use either of them.
- * This file is an alternative of Parser.java.
- * It implements the methods using the Stream functionality.
- * It is faster, and help you learn a bit of recent and fancy Java functionalities.
+ * This utility class provides static methods for parsing each of the files
+ * we're interested in, and returning the relevant data structure.
+ *
+ * Each file is loaded in two phases. First every line is decoded in parallel
+ * into primitive records, with line i only ever writing slot i of the record
+ * arrays, so the threads never share anything they write. Then the records
+ * are linked into the graph by one thread, in file order. The objects that
+ * link to each other (a Segment adds itself to its Road and Nodes) are only
+ * ever touched in that second phase, so the result is the same on every run
+ * however the first phase was scheduled.
  */
 public class Parser {
 
-    private Parser(){
-        //empty private constructor
-    }
+	private Parser() {
+		// empty private constructor
+	}
 
-	private static final Function<String, String[]> splitByTab =
-			line -> line.split("[\t]+");
+	public static Map<Integer, Node> parseNodes(File nodes, Graph graph) {
+		List<String> lines = readLines(nodes, 0);
+		Node[] decoded = new Node[lines.size()];
+		decode(lines, i -> {
+			String[] tokens = split(lines.get(i));
+			decoded[i] = new Node(asInt(tokens[0]), asDouble(tokens[1]), asDouble(tokens[2]));
+		});
 
-	public static Map<Integer, Node> parseNodes(
-			File nodes,
-			Graph graph)
-	{
-		try {
-			final Function<Node, Integer> key = node -> node.nodeID;
-			final Function<Node, Node> value = node -> node;
-			final Function<String[], Node> nodeFrom =
-                    tokens -> {
-                        int nodeID = asInt(tokens[0]);
-                        double lat = asDouble(tokens[1]),
-                               lon = asDouble(tokens[2]);
-                        return new Node(nodeID, lat, lon);
-                    };
-
-			return Files.lines(nodes.toPath())
-						.parallel()
-						.map(splitByTab)
-						.map(nodeFrom)
-                        .collect(Collectors.toMap(key, value));
-		} catch (IOException | NumberFormatException e) {
-			throw new RuntimeException("file reading failed.");
+		Map<Integer, Node> map = new HashMap<>(2 * decoded.length);
+		for (Node node : decoded)
+			map.put(node.nodeID, node);
+		return map;
+	}
+
+	public static Map<Integer, Road> parseRoads(File roads, Graph graph) {
+		List<String> lines = readLines(roads, 1);
+		Road[] decoded = new Road[lines.size()];
+		decode(lines, i -> {
+			String[] tokens = split(lines.get(i));
+			int roadID = asInt(tokens[0]), type = asInt(tokens[1]);
+			String city = tokens[3];
+			int oneway = asInt(tokens[4]), speed = asInt(tokens[5]), roadClass = asInt(tokens[6]);
+			decoded[i] = new Road(roadID, type, capitalise(tokens[2]), city, oneway, speed, roadClass);
+		});
+
+		Map<Integer, Road> map = new HashMap<>(2 * decoded.length);
+		for (Road road : decoded)
+			map.put(road.roadID, road);
+		return map;
+	}
+
+	public static Collection<Segment> parseSegments(File segments, Graph graph) {
+		List<String> lines = readLines(segments, 1);
+		int count = lines.size();
+		int[] roadIDs = new int[count], node1IDs = new int[count], node2IDs = new int[count];
+		double[] lengths = new double[count];
+		Location[][] points = new Location[count][];
+		decode(lines, i -> {
+			String[] tokens = split(lines.get(i));
+			roadIDs[i] = asInt(tokens[0]);
+			lengths[i] = asDouble(tokens[1]);
+			node1IDs[i] = asInt(tokens[2]);
+			node2IDs[i] = asInt(tokens[3]);
+			Location[] locs = new Location[(tokens.length - 4) / 2];
+			for (int j = 0; j < locs.length; j++)
+				locs[j] = Location.newFromLatLon(asDouble(tokens[4 + 2 * j]), asDouble(tokens[5 + 2 * j]));
+			points[i] = locs;
+		});
+
+		// the Segment constructor adds it to its Road's and Nodes' sets, so
+		// this part has to be single threaded.
+		List<Segment> list = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(new Segment(graph.roads.get(roadIDs[i]), graph.nodes.get(node1IDs[i]),
+					graph.nodes.get(node2IDs[i]), lengths[i], points[i]));
 		}
+		return list;
 	}
 
-	public static Map<Integer, Road> parseRoads(
-			File roads,
-			Graph graph)
-	{
-		try{
-			final Function<Road, Integer> key = road -> road.roadID;
-			final Function<Road, Road> value = road -> road;
-			final Function<String[], Road> toRoad =
-                    tokens -> {
-                        int roadID = asInt(tokens[0]),
-                            type = asInt(tokens[1]);
-                        String city = tokens[3];
-                        int oneway = asInt(tokens[4]),
-                            speed = asInt(tokens[5]),
-                            road_class = asInt(tokens[6]);
-
-                        // capitalise all words in road name
-                        String[] nameWords = tokens[2].split("\\s");
-                        StringBuilder nameBuilder = new StringBuilder();
-                        for (String w : nameWords) {
-                        	if (w.length() > 1) nameBuilder.append(w.toUpperCase().charAt(0)).append(w.substring(1));
-                        	else nameBuilder.append(w);
-                        	nameBuilder.append(" ");
-						}
+	public static Map<Node, List<Restriction>> parseRestrictions(File restrictions, Graph graph) {
+		List<String> lines = readLines(restrictions, 1);
+		int count = lines.size();
+		// previous node, previous road, node, next road, next node.
+		int[] ids = new int[5 * count];
+		decode(lines, i -> {
+			String[] tokens = split(lines.get(i));
+			for (int j = 0; j < 5; j++)
+				ids[5 * i + j] = asInt(tokens[j]);
+		});
 
-                        return new Road(
-                                roadID, type, nameBuilder.substring(0, nameBuilder.length()-1),
-                                city, oneway, speed,
-                                road_class
-                        );
-                    };
-
-			return Files.lines(roads.toPath())
-						.skip(1)	//skip header
-						.parallel()
-						.map(splitByTab)
-						.map(toRoad)
-                        .collect(Collectors.toMap(key,value));
-		}catch (IOException | NumberFormatException e){
+		Map<Node, List<Restriction>> map = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			Node prev = graph.nodes.get(ids[5 * i]);
+			Road prevRd = graph.roads.get(ids[5 * i + 1]);
+			Node curr = graph.nodes.get(ids[5 * i + 2]);
+			Road nextRd = graph.roads.get(ids[5 * i + 3]);
+			Node next = graph.nodes.get(ids[5 * i + 4]);
+			map.computeIfAbsent(curr, c -> new ArrayList<>()).add(new Restriction(prevRd, nextRd, prev, curr, next));
+		}
+		return map;
+	}
+
+	/**
+	 * Reads the [POLYGON] sections of a polish map file. The Data lines are
+	 * long and there are a lot of them, so rather than go a line at a time,
+	 * this reads the coordinates straight out of the bytes of the file into
+	 * packed arrays. A polygon's rings are its Data0 lines, or if it has none,
+	 * the lines of the most detailed DataN it does have.
+	 */
+	public static PolygonLayer parsePolygons(File polygons, Graph graph) {
+		int count = 0, ringCount = 0, pointCount = 0;
+		int[] types = new int[1024], endLevels = new int[1024], rings = new int[1025];
+		int[] points = new int[1025];
+		float[] xs = new float[1 << 14], ys = new float[1 << 14];
+		double[] latLon = new double[2];
+
+		try (MpReader reader = new MpReader(new FileInputStream(polygons))) {
+			boolean inPolygon = false;
+			int type = 0, endLevel = 0, dataLevel = Integer.MAX_VALUE;
+			String key;
+			while ((key = reader.key()) != null) {
+				if (key.equals("[POLYGON]")) {
+					inPolygon = true;
+					type = endLevel = 0;
+					dataLevel = Integer.MAX_VALUE;
+					reader.skipLine();
+				} else if (key.equals("[END]")) {
+					// polygons without any points are left out.
+					if (inPolygon && ringCount > rings[count]) {
+						if (count + 1 == types.length) {
+							types = Arrays.copyOf(types, 2 * types.length);
+							endLevels = Arrays.copyOf(endLevels, types.length);
+							rings = Arrays.copyOf(rings, types.length + 1);
+						}
+						types[count] = type;
+						endLevels[count] = endLevel;
+						rings[++count] = ringCount;
+					}
+					ringCount = rings[count];
+					pointCount = points[ringCount];
+					inPolygon = false;
+					reader.skipLine();
+				} else if (inPolygon && key.equals("Type")) {
+					type = Integer.decode(reader.value());
+				} else if (inPolygon && key.equals("EndLevel")) {
+					endLevel = asInt(reader.value());
+				} else if (inPolygon && key.startsWith("Data")) {
+					int level = asInt(key.substring(4));
+					if (level < dataLevel) {
+						// throw away the less detailed rings read so far.
+						dataLevel = level;
+						ringCount = rings[count];
+						pointCount = points[ringCount];
+					}
+					if (level > dataLevel) {
+						reader.skipLine();
+						continue;
+					}
+					while (reader.nextPair(latLon)) {
+						if (pointCount == xs.length) {
+							xs = Arrays.copyOf(xs, 2 * xs.length);
+							ys = Arrays.copyOf(ys, xs.length);
+						}
+						Location loc = Location.newFromLatLon(latLon[0], latLon[1]);
+						xs[pointCount] = (float) loc.x;
+						ys[pointCount++] = (float) loc.y;
+					}
+					if (pointCount > points[ringCount]) {
+						if (ringCount + 2 > points.length) points = Arrays.copyOf(points, 2 * points.length);
+						points[++ringCount] = pointCount;
+					}
+				} else {
+					reader.skipLine();
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
 			throw new RuntimeException("file reading failed.");
 		}
+		// trim off the room left to grow into.
+		return new PolygonLayer(count, Arrays.copyOf(types, count), Arrays.copyOf(endLevels, count),
+				Arrays.copyOf(rings, count + 1), Arrays.copyOf(points, ringCount + 1), Arrays.copyOf(xs, pointCount),
+				Arrays.copyOf(ys, pointCount));
 	}
 
-	public static Collection<Segment> parseSegments(
-			File segments,
-			Graph graph)
-	{
-		try{
-		    final Function<String[], Segment> toSegment =
-                    tokens -> {
-                        int roadID = asInt(tokens[0]);
-                        double length = asDouble(tokens[1]);
-                        int node1ID = asInt(tokens[2]),
-                            node2ID = asInt(tokens[3]);
-                        double[] coords = asDouble(tokens,4);
-
-                        return new Segment(
-                                graph, roadID,
-                                length, node1ID,
-                                node2ID, coords
-                        );
-                    };
-
-			return Files.lines(segments.toPath())
-                        .skip(1)	//skip header
-						.parallel()
-                        .map(splitByTab)
-                        .map(toSegment)
-                        .collect(Collectors.toSet());
-		}catch (IOException | NumberFormatException e){
+	/**
+	 * @return the lines of file after the first skip, leaving out blank ones.
+	 */
+	private static List<String> readLines(File file, int skip) {
+		try {
+			List<String> lines = Files.readAllLines(file.toPath());
+			List<String> kept = new ArrayList<>(lines.size());
+			for (int i = skip; i < lines.size(); i++) {
+				if (!lines.get(i).isBlank()) kept.add(lines.get(i));
+			}
+			return kept;
+		} catch (IOException e) {
 			throw new RuntimeException("file reading failed.");
 		}
 	}
 
-	public static Map<Node, List<Restriction>> parseRestrictions(
-			File restrictions,
-			Graph graph
-	)
-	{
-		try{
-			final Function<Restriction, Node> key = res -> res.curr;
-			final Function<Restriction, List<Restriction>> value = res -> {
-				List<Restriction> l = new ArrayList<>();
-				l.add(res);
-				return l;
-			};
-			final BinaryOperator<List<Restriction>> merge = (old, latest) -> {
-				old.addAll(latest);
-				return old;
-			};
-			final Function<String[], Restriction> toRestriction =
-					tokens -> {
-						int prevNodeID = asInt(tokens[0]);
-						Node prev = graph.nodes.get(prevNodeID);
-						int prevRdID = asInt(tokens[1]);
-						Road prevRd = graph.roads.get(prevRdID);
-						int currNodeID = asInt(tokens[2]);
-						Node curr = graph.nodes.get(currNodeID);
-						int nextRdID = asInt(tokens[3]);
-						Road nextRd = graph.roads.get(nextRdID);
-						int nextNodeID = asInt(tokens[4]);
-						Node next = graph.nodes.get(nextNodeID);
-
-						return new Restriction(
-								prevRd, nextRd,
-								prev, curr, next
-						);
-					};
-
-			return Files.lines(restrictions.toPath())
-					.skip(1)	//skip header
-					.parallel()
-					.map(splitByTab)
-					.map(toRestriction)
-					.collect(Collectors.toMap(key, value, merge));
-		}catch (IOException | NumberFormatException e){
+	/**
+	 * Runs the decoder on every line index in parallel. The decoder must only
+	 * write to slots of its own line.
+	 */
+	private static void decode(List<String> lines, IntConsumer decoder) {
+		try {
+			IntStream.range(0, lines.size()).parallel().forEach(decoder);
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
 			throw new RuntimeException("file reading failed.");
 		}
 	}
 
-	private static int asInt(String str)
-	{
+	/**
+	 * Splits line at runs of tabs, like line.split("[\t]+") but without going
+	 * through a regex.
+	 */
+	private static String[] split(String line) {
+		List<String> tokens = new ArrayList<>();
+		int start = 0;
+		for (int i = 0; i <= line.length(); i++) {
+			if (i < line.length() && line.charAt(i) != '\t') continue;
+			if (i > start || start == 0) tokens.add(line.substring(start, i));
+			start = i + 1;
+		}
+		return tokens.toArray(new String[0]);
+	}
+
+	/**
+	 * Capitalises every word in a road name.
+	 */
+	private static String capitalise(String name) {
+		String[] nameWords = name.split("\\s");
+		StringBuilder nameBuilder = new StringBuilder();
+		for (String w : nameWords) {
+			if (w.length() > 1) nameBuilder.append(w.toUpperCase().charAt(0)).append(w.substring(1));
+			else nameBuilder.append(w);
+			nameBuilder.append(" ");
+		}
+		return nameBuilder.substring(0, nameBuilder.length() - 1);
+	}
+
+	private static int asInt(String str) {
 		return Integer.parseInt(str);
 	}
 
-	private static double asDouble(String str)
-	{
+	private static double asDouble(String str) {
 		return Double.parseDouble(str);
 	}
 
-    private static double[] asDouble(
-            String[] tokens,
-            int skip)
-    {
-        if(skip < 0) skip = 0;
-        return Stream.of(tokens)
-                     .skip(skip)	//skip to read the coordinates
-                     .mapToDouble(Parser::asDouble)
-                     .toArray();
-    }
+	/**
+	 * MpReader goes through a polish map file a key=value line at a time,
+	 * through a buffer of its bytes, only making Strings out of the keys and
+	 * the short values asked for.
+	 */
+	private static final class MpReader implements AutoCloseable {
+		private static final double[] POWERS_OF_TEN = new double[16];
+		static {
+			POWERS_OF_TEN[0] = 1;
+			for (int i = 1; i < POWERS_OF_TEN.length; i++)
+				POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+
+		private final InputStream in;
+		private final byte[] buffer = new byte[1 << 16];
+		private int pos, limit;
+		private final StringBuilder token = new StringBuilder();
+
+		MpReader(InputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * @return the byte at the current position, or -1 at the end of the
+		 *         file.
+		 */
+		private int peek() throws IOException {
+			if (pos == limit) {
+				limit = in.read(buffer, 0, buffer.length);
+				pos = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			return buffer[pos] & 0xff;
+		}
+
+		/**
+		 * Moves to the start of the next line that isn't blank or a comment,
+		 * and reads up to the '=' or the end of the line.
+		 *
+		 * @return the key of the line, or the whole line if it doesn't have
+		 *         one (a section header), or null at the end of the file.
+		 */
+		String key() throws IOException {
+			int c;
+			while ((c = peek()) == '\n' || c == '\r' || c == ' ' || c == '\t' || c == ';') {
+				if (c == ';') skipLine();
+				else pos++;
+			}
+			if (c < 0) return null;
+			token.setLength(0);
+			while ((c = peek()) >= 0 && c != '=' && c != '\n' && c != '\r') {
+				token.append((char) c);
+				pos++;
+			}
+			if (c == '=') pos++;
+			return token.toString();
+		}
+
+		/**
+		 * @return the rest of the line, which is then skipped.
+		 */
+		String value() throws IOException {
+			token.setLength(0);
+			int c;
+			while ((c = peek()) >= 0 && c != '\n' && c != '\r') {
+				token.append((char) c);
+				pos++;
+			}
+			return token.toString().trim();
+		}
+
+		void skipLine() throws IOException {
+			int c;
+			while ((c = peek()) >= 0 && c != '\n')
+				pos++;
+		}
+
+		/**
+		 * Reads the next (lat,lon) pair on the line into latLon.
+		 *
+		 * @return false if there are no more on the line.
+		 */
+		boolean nextPair(double[] latLon) throws IOException {
+			int c;
+			while ((c = peek()) >= 0 && c != '(' && c != '\n')
+				pos++;
+			if (c != '(') return false;
+			pos++;
+			latLon[0] = number();
+			if (peek() != ',') throw new NumberFormatException();
+			pos++;
+			latLon[1] = number();
+			if (peek() != ')') throw new NumberFormatException();
+			pos++;
+			return true;
+		}
+
+		/**
+		 * Reads a plain decimal number. Ones with few enough digits are built
+		 * up from the digits, which rounds the same as Double.parseDouble
+		 * since both the digits and the power of ten are exact doubles.
+		 */
+		private double number() throws IOException {
+			token.setLength(0);
+			int c = peek();
+			boolean negative = c == '-';
+			if (c == '-' || c == '+') {
+				token.append((char) c);
+				pos++;
+			}
+			long digits = 0;
+			int count = 0, decimals = 0;
+			boolean point = false;
+			while ((c = peek()) >= 0) {
+				if (c >= '0' && c <= '9') {
+					digits = digits * 10 + (c - '0');
+					count++;
+					if (point) decimals++;
+				} else if (c == '.' && !point) {
+					point = true;
+				} else {
+					break;
+				}
+				token.append((char) c);
+				pos++;
+			}
+			if (count == 0) throw new NumberFormatException();
+			if (count > 15) return asDouble(token.toString());
+			double value = digits / POWERS_OF_TEN[decimals];
+			return negative ? -value : value;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
 }
-// code for COMP261 assignments
\ No newline at end of file
+
+// code for COMP261 assignments
@@ -0,0 +1,177 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+
+/**
+ * PolygonLayer holds the shapes from polygon-shapes.mp (parks, lakes, the
+ * sea, buildings, and so on) that are drawn under the roads. The points of
+ * every polygon are packed into two flat float arrays, with each polygon's
+ * rings and each ring's points found by offset, and a BoundsIndex over the
+ * polygons' bounding boxes finds the ones on screen.
+ *
+ * Polygons are drawn a layer at a time by Type, so that a city area doesn't
+ * cover the parks in it. When zoomed out, polygons whose EndLevel says they
+ * are too detailed are left out, as are ones smaller than a pixel, and
+ * points that land on the same pixel as the one before are skipped.
+ */
+public class PolygonLayer {
+	// roughly how many polygons share a cell of the index.
+	private static final double POLYGONS_PER_CELL = 4;
+	// the highest EndLevel in the .mp files, for polygons shown at any zoom.
+	private static final int MAX_END_LEVEL = 3;
+
+	private static final Color URBAN_COLOUR = new Color(240, 236, 228);
+	private static final Color GREEN_COLOUR = new Color(205, 228, 190);
+	private static final Color WATER_COLOUR = new Color(181, 208, 230);
+	private static final Color BUILT_COLOUR = new Color(222, 216, 208);
+
+	private final int count;
+	private final int[] types, endLevels;
+	// polygon i has rings [rings[i], rings[i+1]), and ring r has points
+	// [points[r], points[r+1]) of xs and ys.
+	private final int[] rings, points;
+	private final float[] xs, ys;
+	// minX, minY, maxX, maxY of polygon i at [4 * i].
+	private final double[] bounds;
+	private final BoundsIndex index;
+	// the polygons in the order they're drawn in, and the position of each
+	// polygon in that order.
+	private final int[] drawOrder, rank;
+
+	PolygonLayer(int count, int[] types, int[] endLevels, int[] rings, int[] points, float[] xs, float[] ys) {
+		this.count = count;
+		this.types = types;
+		this.endLevels = endLevels;
+		this.rings = rings;
+		this.points = points;
+		this.xs = xs;
+		this.ys = ys;
+
+		bounds = new double[4 * count];
+		for (int i = 0; i < count; i++) {
+			double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+			double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+			for (int p = points[rings[i]]; p < points[rings[i + 1]]; p++) {
+				x0 = Math.min(x0, xs[p]);
+				y0 = Math.min(y0, ys[p]);
+				x1 = Math.max(x1, xs[p]);
+				y1 = Math.max(y1, ys[p]);
+			}
+			bounds[4 * i] = x0;
+			bounds[4 * i + 1] = y0;
+			bounds[4 * i + 2] = x1;
+			bounds[4 * i + 3] = y1;
+		}
+		index = new BoundsIndex(bounds, count, POLYGONS_PER_CELL);
+
+		// a stable counting sort by layer, so polygons in the same layer are
+		// drawn in file order.
+		int[] layerStart = new int[5];
+		for (int i = 0; i < count; i++)
+			layerStart[layer(types[i]) + 1]++;
+		for (int l = 0; l < 4; l++)
+			layerStart[l + 1] += layerStart[l];
+		drawOrder = new int[count];
+		rank = new int[count];
+		for (int i = 0; i < count; i++) {
+			int r = layerStart[layer(types[i])]++;
+			drawOrder[r] = i;
+			rank[i] = r;
+		}
+	}
+
+	/**
+	 * @return the number of polygons.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the number of points in all the polygons.
+	 */
+	public int points() {
+		return points[rings[count]];
+	}
+
+	/**
+	 * @return roughly how many bytes the layer takes, not counting its index.
+	 */
+	public long bytes() {
+		return 4L * (types.length + endLevels.length + rings.length + points.length + xs.length + ys.length
+				+ drawOrder.length + rank.length) + 8L * bounds.length;
+	}
+
+	/**
+	 * Draws the polygons that can be in the window (left, bottom, right, top)
+	 * at the given scale and level of detail band. Like Graph.drawBase, this
+	 * only reads the layer, so it can be run on any number of threads at once,
+	 * each with its own Projection.
+	 */
+	void draw(Graphics2D g, Projection projection, double[] window, double scale, int band) {
+		// EndLevel counts up from the most detailed zoom, bands down to it.
+		int minEndLevel = MAX_END_LEVEL - band;
+		int[] visible = projection.items(count);
+		int[] found = { 0 };
+		index.query(window[0], window[1], window[2], window[3], i -> {
+			if (endLevels[i] < minEndLevel) return;
+			// too small to see.
+			if ((bounds[4 * i + 2] - bounds[4 * i]) * scale < 1 && (bounds[4 * i + 3] - bounds[4 * i + 1]) * scale < 1)
+				return;
+			visible[found[0]++] = rank[i];
+		});
+		Arrays.sort(visible, 0, found[0]);
+
+		Color colour = null;
+		for (int k = 0; k < found[0]; k++) {
+			int i = drawOrder[visible[k]];
+			Color c = colour(types[i]);
+			if (c != colour) g.setColor(colour = c);
+			if (rings[i + 1] - rings[i] == 1) {
+				projection.fillPolygon(g, xs, ys, points[rings[i]], points[rings[i] + 1]);
+			} else {
+				// islands in lakes and the like are holes between the rings.
+				Path2D.Float path = new Path2D.Float(Path2D.WIND_EVEN_ODD);
+				for (int r = rings[i]; r < rings[i + 1]; r++) {
+					path.moveTo(projection.x(xs[points[r]]), projection.y(ys[points[r]]));
+					for (int p = points[r] + 1; p < points[r + 1]; p++)
+						path.lineTo(projection.x(xs[p]), projection.y(ys[p]));
+					path.closePath();
+				}
+				g.fill(path);
+			}
+		}
+	}
+
+	/**
+	 * @return the layer polygons of the given Type are drawn in, lowest first:
+	 *         urban areas and the sea, then parks and other green areas, then
+	 *         lakes and rivers, then buildings and everything else.
+	 */
+	private static int layer(int type) {
+		if (type <= 0x03 || type == 0x28 || type == 0x29) return 0;
+		if (isGreen(type)) return 1;
+		if (isWater(type)) return 2;
+		return 3;
+	}
+
+	private static Color colour(int type) {
+		if (isWater(type)) return WATER_COLOUR;
+		if (type <= 0x03) return URBAN_COLOUR;
+		if (isGreen(type)) return GREEN_COLOUR;
+		return BUILT_COLOUR;
+	}
+
+	// the polish map format's parks, reserves, forests, cemeteries and golf
+	// courses.
+	private static boolean isGreen(int type) {
+		return (type >= 0x14 && type <= 0x18) || type == 0x1a || (type >= 0x1e && type <= 0x20)
+				|| (type >= 0x4e && type <= 0x50);
+	}
+
+	// the sea, lakes and rivers.
+	private static boolean isWater(int type) {
+		return type == 0x28 || type == 0x29 || (type >= 0x3b && type <= 0x49);
+	}
+}
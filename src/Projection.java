@@ -0,0 +1,91 @@
+import java.awt.Dimension;
+import java.awt.Graphics;
+
+/**
+ * Projection turns Locations into screen coordinates for one view of the map,
+ * the same way as Location.asPoint, but into buffers that are reused from one
+ * polyline to the next instead of allocating a Point per vertex. A Projection
+ * must only be used by one thread at a time.
+ */
+public class Projection {
+	private Location origin;
+	private double scale;
+	private int[] xs = new int[16], ys = new int[16];
+	// what a layer has found to draw, reused like xs and ys.
+	private int[] items = new int[16];
+
+	/**
+	 * Points this projection at the view with the given origin (top left of
+	 * the screen) and scale.
+	 */
+	public void set(Location origin, double scale) {
+		this.origin = origin;
+		this.scale = scale;
+	}
+
+	public int x(double x) {
+		return (int) ((x - origin.x) * scale);
+	}
+
+	public int y(double y) {
+		return (int) ((origin.y - y) * scale);
+	}
+
+	/**
+	 * @return the left, bottom, right and top edges of a screen of the given
+	 *         size in Location coordinates, widened by margin pixels all round
+	 *         for anything drawn a little way from the point it's at.
+	 */
+	public double[] window(Dimension area, int margin) {
+		double m = margin / scale;
+		return new double[] { origin.x - m, origin.y - area.height / scale - m, origin.x + area.width / scale + m,
+				origin.y + m };
+	}
+
+	/**
+	 * Fills the polygon through points [from, to) of px and py, leaving out
+	 * any point that lands on the same pixel as the one before it.
+	 */
+	public void fillPolygon(Graphics g, float[] px, float[] py, int from, int to) {
+		if (to - from > xs.length) {
+			xs = new int[Integer.highestOneBit(to - from) << 1];
+			ys = new int[xs.length];
+		}
+		int n = 0;
+		for (int i = from; i < to; i++) {
+			int sx = x(px[i]), sy = y(py[i]);
+			if (n > 0 && sx == xs[n - 1] && sy == ys[n - 1]) continue;
+			xs[n] = sx;
+			ys[n++] = sy;
+		}
+		g.fillPolygon(xs, ys, n);
+	}
+
+	/**
+	 * @return an array of at least size ints for a layer to collect what it's
+	 *         drawing in. It's the same array every time, so it's only good
+	 *         until this is next called.
+	 */
+	int[] items(int size) {
+		if (size > items.length) items = new int[Integer.highestOneBit(size) << 1];
+		return items;
+	}
+
+	/**
+	 * Draws a line through the given points.
+	 */
+	public void drawPolyline(Graphics g, Location[] points) {
+		if (points.length > xs.length) {
+			xs = new int[Integer.highestOneBit(points.length) << 1];
+			ys = new int[xs.length];
+		}
+		for (int i = 0; i < points.length; i++) {
+			xs[i] = x(points[i].x);
+			ys[i] = y(points[i].y);
+		}
+		// java2d draws separate lines faster than a polyline, which it turns
+		// into a general shape first.
+		for (int i = 1; i < points.length; i++)
+			g.drawLine(xs[i - 1], ys[i - 1], xs[i], ys[i]);
+	}
+}
@@ -18,6 +18,8 @@ public class Road {
 	public final int oneWay;
 	public final int speed;
 	public final int roadClass;
+	// position of this road in the RoutingGraph arrays.
+	int index = -1;
 	public static final double MAX_SPEED = 110.0;
 
 	public Road(int roadID, int type, String label, String city, int oneway,
@@ -95,15 +97,33 @@ public class Road {
 
 	@Override
 	public String toString() {
+		return toString(false);
+	}
+
+	/**
+	 * @param isTime if true, include the time taken to travel this road
+	 * @return the length of this road, and the time it takes if asked for
+	 */
+	public String toString(boolean isTime) {
 		double distance = 0.0;
 		double time = 0.0;
 		for (Segment s : components) distance += s.length;
-		if (Mapper.isTime) {
+		if (isTime) {
 			for (Segment s : components) time += s.length / s.road.getSpeed(false);
-			return String.format("%s: %s (%.3f km)\n", name, Mapper.parseTime(time), distance);
+			return toString(time);
 		}
 		return String.format("%s: %.3f km\n", name, distance);
 	}
+
+	/**
+	 * @param time the hours it takes to travel this road
+	 * @return the length of this road and the time it takes
+	 */
+	public String toString(double time) {
+		double distance = 0.0;
+		for (Segment s : components) distance += s.length;
+		return String.format("%s: %s (%.3f km)\n", name, Mapper.parseTime(time), distance);
+	}
 }
 
 // code for COMP261 assignments
\ No newline at end of file
@@ -0,0 +1,339 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * RoadIndex finds roads by name, for the search box and for geocoding lists of
+ * street names. Names are normalized first (see normalize), so "Queen Street",
+ * "queen st" and "queen st." are all the same name. Each distinct name is
+ * kept once, with every road of that name, in whatever city; the segments and
+ * nodes of the roads are reached through Road.components.
+ *
+ * The names are found by prefix with a binary search of a sorted array of
+ * keys. Each name has a key for the whole name and one for each later word,
+ * so "karangahape" finds "upper karangahape road" too, after the names that
+ * start with it.
+ */
+public class RoadIndex {
+	// the street types the data shortens, and what they're short for. Only
+	// words after the first are expanded, so "st johns rd" stays a saint.
+	private static final Map<String, String> TYPES = new HashMap<>();
+	static {
+		String[] types = { "st", "street", "rd", "road", "ave", "avenue", "dr", "drive", "pl", "place", "cres",
+				"crescent", "tce", "terrace", "cl", "close", "crt", "court", "pde", "parade", "grv", "grove", "hwy",
+				"highway", "hts", "heights", "blvd", "boulevard", "cir", "circle", "pt", "point", "wlk", "walk" };
+		for (int i = 0; i < types.length; i += 2)
+			TYPES.put(types[i], types[i + 1]);
+	}
+
+	// the distinct normalized names, sorted, and the roads with each: the
+	// roads named names[i] are roads[offsets[i]] to roads[offsets[i+1]-1].
+	private final String[] names;
+	private final int[] offsets;
+	private final Road[] roads;
+	// the search keys, sorted, and the name each is from. A key is a whole
+	// name or the end of one from the start of a word.
+	private final String[] keys;
+	private final int[] keyNames;
+
+	public RoadIndex(Collection<Road> roadCollection) {
+		Road[] all = new Road[roadCollection.size()];
+		String[] normalized = new String[all.length];
+		int count = 0;
+		for (Road road : roadCollection) {
+			String name = normalize(road.name);
+			// "-" is how the data marks a road with no name.
+			if (name.isEmpty()) continue;
+			all[count] = road;
+			normalized[count++] = name;
+		}
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+		Comparator<Road> byCity = Comparator.comparing(road -> road.city);
+		Arrays.sort(order, Comparator.<Integer, String>comparing(i -> normalized[i])
+				.thenComparing(i -> all[i], byCity.thenComparingInt(road -> road.roadID)));
+
+		roads = new Road[count];
+		List<String> distinct = new ArrayList<>();
+		List<Integer> starts = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			String name = normalized[order[i]];
+			if (distinct.isEmpty() || !distinct.get(distinct.size() - 1).equals(name)) {
+				distinct.add(name);
+				starts.add(i);
+			}
+			roads[i] = all[order[i]];
+		}
+		names = distinct.toArray(new String[0]);
+		offsets = new int[names.length + 1];
+		for (int i = 0; i < names.length; i++)
+			offsets[i] = starts.get(i);
+		offsets[names.length] = count;
+
+		List<String> keyList = new ArrayList<>();
+		List<Integer> keyNameList = new ArrayList<>();
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			for (int at = 0;; at = name.indexOf(' ', at) + 1) {
+				keyList.add(name.substring(at));
+				keyNameList.add(i);
+				if (name.indexOf(' ', at) < 0) break;
+			}
+		}
+		Integer[] keyOrder = new Integer[keyList.size()];
+		for (int k = 0; k < keyOrder.length; k++)
+			keyOrder[k] = k;
+		Arrays.sort(keyOrder, Comparator.comparing(keyList::get));
+		keys = new String[keyOrder.length];
+		keyNames = new int[keyOrder.length];
+		for (int k = 0; k < keyOrder.length; k++) {
+			keys[k] = keyList.get(keyOrder[k]);
+			keyNames[k] = keyNameList.get(keyOrder[k]);
+		}
+	}
+
+	/**
+	 * @return name in lower case, with apostrophes dropped, any other
+	 *         punctuation turned into spaces, runs of spaces made one, and
+	 *         shortened street types after the first word spelt out.
+	 */
+	public static String normalize(String name) {
+		StringBuilder str = new StringBuilder(name.length() + 8);
+		int wordStart = 0;
+		for (int i = 0; i <= name.length(); i++) {
+			char c = i < name.length() ? Character.toLowerCase(name.charAt(i)) : ' ';
+			if (c == '\'') continue;
+			if (Character.isLetterOrDigit(c)) {
+				str.append(c);
+				continue;
+			}
+			// the end of a word, if there's one to end.
+			if (str.length() == wordStart) continue;
+			if (wordStart > 0) {
+				String type = TYPES.get(str.substring(wordStart));
+				if (type != null) str.replace(wordStart, str.length(), type);
+			}
+			str.append(' ');
+			wordStart = str.length();
+		}
+		if (str.length() > 0) str.setLength(str.length() - 1);
+		return str.toString();
+	}
+
+	/**
+	 * A name and the roads with it.
+	 */
+	public class Match {
+		private final int name;
+
+		private Match(int name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return the name as it's written in the data, taken from its first
+		 *         road.
+		 */
+		public String name() {
+			return roads[offsets[name]].name;
+		}
+
+		public List<Road> roads() {
+			return Collections.unmodifiableList(Arrays.asList(roads).subList(offsets[name], offsets[name + 1]));
+		}
+
+		/**
+		 * @return the distinct cities the roads are in.
+		 */
+		public Set<String> cities() {
+			Set<String> cities = new LinkedHashSet<>();
+			for (int r = offsets[name]; r < offsets[name + 1]; r++)
+				cities.add(roads[r].city);
+			return cities;
+		}
+
+		public Set<Segment> segments() {
+			Set<Segment> segments = new LinkedHashSet<>();
+			for (int r = offsets[name]; r < offsets[name + 1]; r++)
+				segments.addAll(roads[r].components);
+			return segments;
+		}
+
+		public Set<Node> nodes() {
+			Set<Node> nodes = new LinkedHashSet<>();
+			for (Segment s : segments()) {
+				nodes.add(s.start);
+				nodes.add(s.end);
+			}
+			return nodes;
+		}
+
+		@Override
+		public String toString() {
+			return name() + " (" + String.join(", ", cities()) + ")";
+		}
+	}
+
+	/**
+	 * @return the number of distinct names.
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Finds up to limit names starting with prefix, or with a word that does,
+	 * for suggesting names as they're typed. Names that start with it come
+	 * first, each in alphabetical order.
+	 */
+	public List<Match> search(String prefix, int limit) {
+		List<Match> matches = new ArrayList<>();
+		String key = normalize(prefix);
+		if (key.isEmpty() || limit <= 0) return matches;
+		// once a word is followed by a space or punctuation it's finished, so
+		// "queen " doesn't match "queenstown road".
+		char last = prefix.charAt(prefix.length() - 1);
+		boolean isWordEnded = !Character.isLetterOrDigit(last) && last != '\'';
+		int from = lowerBound(keys, key), to = lowerBound(keys, key + Character.MAX_VALUE);
+		// whole names first, then ones matched on a later word, which may
+		// match on more than one word but only count once.
+		for (int k = from; k < to && matches.size() < limit; k++) {
+			if (isWordEnded && !endsWord(keys[k], key.length())) continue;
+			if (keys[k].length() == names[keyNames[k]].length()) matches.add(new Match(keyNames[k]));
+		}
+		int wholeNames = matches.size();
+		for (int k = from; k < to && matches.size() < limit; k++) {
+			if (isWordEnded && !endsWord(keys[k], key.length())) continue;
+			if (keys[k].length() == names[keyNames[k]].length()) continue;
+			boolean seen = false;
+			for (int i = wholeNames; i < matches.size() && !seen; i++)
+				seen = matches.get(i).name == keyNames[k];
+			// names that start with it were all added above.
+			String name = names[keyNames[k]];
+			boolean isWhole = name.startsWith(key) && (!isWordEnded || endsWord(name, key.length()));
+			if (!seen && !isWhole) matches.add(new Match(keyNames[k]));
+		}
+		return matches;
+	}
+
+	/**
+	 * @return the roads named name, or null if there aren't any.
+	 */
+	public Match find(String name) {
+		int i = Arrays.binarySearch(names, normalize(name));
+		return i < 0 ? null : new Match(i);
+	}
+
+	/**
+	 * @return true if a word of key ends at i.
+	 */
+	private static boolean endsWord(String key, int i) {
+		return i == key.length() || key.charAt(i) == ' ';
+	}
+
+	private static int lowerBound(String[] sorted, String key) {
+		int lo = 0, hi = sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid].compareTo(key) < 0) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Geocodes a list of street names, one a line, optionally followed by a
+	 * comma and the city, giving the ID and location of a node in the middle
+	 * of the named roads in each city.
+	 */
+	public void geocode(BufferedReader in, PrintStream out) throws IOException {
+		String line;
+		int found = 0, missing = 0;
+		out.println("query\tname\tcity\tnodeID\tlat\tlon\troads");
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			int comma = line.indexOf(',');
+			String name = comma < 0 ? line : line.substring(0, comma);
+			String city = comma < 0 ? null : normalize(line.substring(comma + 1));
+			Match match = find(name);
+			boolean any = false;
+			if (match != null) {
+				for (String matchCity : match.cities()) {
+					if (city != null && !normalize(matchCity).equals(city)) continue;
+					List<Road> inCity = new ArrayList<>();
+					for (Road road : match.roads()) {
+						if (road.city.equals(matchCity)) inCity.add(road);
+					}
+					Node middle = middle(inCity);
+					if (middle == null) continue;
+					double[] latLon = middle.location.toLatLon();
+					out.printf(Locale.ROOT, "%s\t%s\t%s\t%d\t%.6f\t%.6f\t%d%n", line, match.name(), matchCity,
+							middle.nodeID, latLon[0], latLon[1], inCity.size());
+					any = true;
+				}
+			}
+			if (any) {
+				found++;
+			} else {
+				out.println(line + "\t-\t-\t-\t-\t-\t0");
+				missing++;
+			}
+		}
+		System.err.printf("%d names found, %d not found%n", found, missing);
+	}
+
+	/**
+	 * @return the node of the roads nearest the middle of their nodes, or null
+	 *         if they have no segments.
+	 */
+	private static Node middle(List<Road> roads) {
+		double x = 0, y = 0;
+		int count = 0;
+		for (Road road : roads) {
+			for (Segment s : road.components) {
+				x += s.start.location.x + s.end.location.x;
+				y += s.start.location.y + s.end.location.y;
+				count += 2;
+			}
+		}
+		if (count == 0) return null;
+		Location centre = new Location(x / count, y / count);
+		Node best = null;
+		for (Road road : roads) {
+			for (Segment s : road.components) {
+				for (Node node : new Node[] { s.start, s.end }) {
+					if (best == null || node.location.distance(centre) < best.location.distance(centre)) best = node;
+				}
+			}
+		}
+		return best;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: java RoadIndex <data directory> <names.txt>");
+			System.exit(1);
+		}
+		Graph graph = Graph.fromDirectory(new File(args[0]));
+		RoadIndex index = new RoadIndex(graph.roads.values());
+		try (BufferedReader in = Files.newBufferedReader(new File(args[1]).toPath(), StandardCharsets.UTF_8)) {
+			index.geocode(in, System.out);
+		}
+	}
+}
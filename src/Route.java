@@ -0,0 +1,168 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Route is the result of a route search: the RoutingGraph edges from start to
+ * goal, in order, and the cost the search found for them. It is immutable and
+ * holds no reference to the SearchContext that produced it.
+ */
+public class Route {
+	public final RoutingGraph graph;
+	public final int start, goal;
+	public final boolean isTime;
+	// edges from start to goal, or null if the goal couldn't be reached.
+	private final int[] edges;
+	// the cost minimised by the search, which for time uses the class-weighted
+	// search speeds rather than the speed limits.
+	public final double cost;
+	// how many nodes the search settled to find this route, or for the
+	// edge-based searches, how many edges.
+	public final int settled;
+	// the costs the search ran on, which give the times reported, or null if
+	// it didn't use live traffic.
+	public final EdgeWeights weights;
+
+	public Route(RoutingGraph graph, int start, int goal, boolean isTime, int[] edges, double cost, int settled,
+			EdgeWeights weights) {
+		this.graph = graph;
+		this.start = start;
+		this.goal = goal;
+		this.isTime = isTime;
+		this.edges = edges;
+		this.cost = cost;
+		this.settled = settled;
+		this.weights = weights;
+	}
+
+	/**
+	 * Follows the edges recorded in the edge-based ctx back from last, the
+	 * edge the search arrived at goal by, or -1 if it didn't.
+	 */
+	static Route fromContext(RoutingGraph graph, SearchContext ctx, int start, int goal, int last, boolean isTime,
+			EdgeWeights weights) {
+		if (start == goal)
+			return new Route(graph, start, goal, isTime, new int[0], 0, ctx.settledCount(), weights);
+		if (last < 0)
+			return new Route(graph, start, goal, isTime, null, Double.POSITIVE_INFINITY, ctx.settledCount(), weights);
+		int count = 0;
+		for (int e = last; e >= 0; e = ctx.prevEdge(e))
+			count++;
+		int[] edges = new int[count];
+		for (int e = last; e >= 0; e = ctx.prevEdge(e))
+			edges[--count] = e;
+		return new Route(graph, start, goal, isTime, edges, ctx.dist(last), ctx.settledCount(), weights);
+	}
+
+	public boolean isFound() {
+		return edges != null;
+	}
+
+	/**
+	 * @return the number of edges from start to goal.
+	 */
+	public int edgeCount() {
+		return edges == null ? 0 : edges.length;
+	}
+
+	/**
+	 * @return a copy of the edges from start to goal.
+	 */
+	public int[] edges() {
+		return edges == null ? new int[0] : edges.clone();
+	}
+
+	/**
+	 * @return the length of the route in km if this is a distance route, or
+	 *         the hours it takes if it is a time route.
+	 */
+	public double total() {
+		double total = 0.0;
+		if (edges == null) return total;
+		for (int e : edges) {
+			if (isTime) total += time(e);
+			else total += graph.segments[e].length;
+		}
+		return total;
+	}
+
+	/**
+	 * @return the hours the route takes at the speed limits, as if there
+	 *         were no traffic.
+	 */
+	public double freeFlowTime() {
+		double total = 0.0;
+		if (edges == null) return total;
+		for (int e : edges) {
+			Segment s = graph.segments[e];
+			total += s.length / s.road.getSpeed(false);
+		}
+		return total;
+	}
+
+	/**
+	 * @return the hours edge e takes at the speed limit, or at the traffic
+	 *         speed the search saw if that's slower.
+	 */
+	private double time(int e) {
+		if (weights != null) return weights.travelTime(e);
+		Segment s = graph.segments[e];
+		return s.length / s.road.getSpeed(false);
+	}
+
+	/**
+	 * Groups the route into consecutive stretches of the same road. Each
+	 * element is a copy of the Road holding only the Segments travelled on it.
+	 */
+	public List<Road> roads() {
+		List<Road> path = new ArrayList<>();
+		if (edges == null) return path;
+		for (int e : edges) {
+			Segment s = graph.segments[e];
+			if (path.isEmpty() || !s.road.equals(path.get(path.size()-1))) {
+				Road newRd = s.road.copyOf();
+				newRd.addSegment(s);
+				path.add(newRd);
+			} else {
+				path.get(path.size()-1).addSegment(s);
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * @return the hours each of the stretches roads() gives takes, in the
+	 *         same order.
+	 */
+	public double[] roadTimes() {
+		if (edges == null) return new double[0];
+		// at most one stretch an edge.
+		double[] times = new double[edges.length];
+		int count = 0;
+		Road last = null;
+		for (int e : edges) {
+			Road road = graph.segments[e].road;
+			if (last == null || !road.equals(last)) count++;
+			times[count - 1] += time(e);
+			last = road;
+		}
+		return Arrays.copyOf(times, count);
+	}
+
+	/**
+	 * @return the road-by-road breakdown shown to the user.
+	 */
+	public String describe() {
+		if (edges == null) return "No path found.";
+		StringBuilder str = new StringBuilder();
+		List<Road> roads = roads();
+		double[] times = isTime ? roadTimes() : null;
+		for (int i = 0; i < roads.size(); i++) {
+			Road r = roads.get(i);
+			str.append(" - ").append(isTime ? r.toString(times[i]) : r.toString(false));
+		}
+		if (isTime) str.append("Total time: ").append(Mapper.parseTime(total()));
+		else str.append(String.format("Total distance: %.3f km\n", total()));
+		return str.toString();
+	}
+}
@@ -0,0 +1,174 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * RouteCache holds the Routes already found, keyed by start node, goal node,
+ * metric and search mode, so asking for the same journey again (or switching
+ * back to a metric or mode already looked at) doesn't search again. It is bounded both by the
+ * number of routes and by the bytes their edge arrays take, and evicts the
+ * least recently used routes to stay within both. It's safe to use from any
+ * number of threads.
+ *
+ * Every mode of search finds a cheapest route, but each does different work
+ * to find it, and a route records how many labels its search settled, so the
+ * mode is part of the key: switching modes shows the new mode's search
+ * rather than an older one's. The routes are only valid for the graph they
+ * were found on, so the cache must be cleared when the graph is replaced,
+ * and its time routes when traffic changes the time costs.
+ */
+public class RouteCache {
+	public static final int DEFAULT_MAX_ROUTES = 10_000;
+	public static final long DEFAULT_MAX_BYTES = 16L << 20;
+	// the Route and its key, roughly, on top of the edges.
+	private static final int ROUTE_OVERHEAD = 104;
+
+	private final int maxRoutes;
+	private final long maxBytes;
+	// in access order, so the first entry is always the least recently used.
+	private final LinkedHashMap<Key, Route> routes = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	// bumped by every clear of a metric, distance then time, so a route found
+	// before one isn't put back after it.
+	private final long[] generations = new long[2];
+
+	private long hits, misses, evictions;
+
+	public RouteCache() {
+		this(DEFAULT_MAX_ROUTES, DEFAULT_MAX_BYTES);
+	}
+
+	public RouteCache(int maxRoutes, long maxBytes) {
+		this.maxRoutes = maxRoutes;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the route from start to goal for the metric found by the given
+	 *         mode of search, or null if it isn't cached.
+	 */
+	public synchronized Route get(int start, int goal, boolean isTime, SearchMode mode) {
+		Route route = routes.get(new Key(start, goal, isTime, mode));
+		if (route == null) misses++;
+		else hits++;
+		return route;
+	}
+
+	/**
+	 * @return the number of times the routes for the metric have been
+	 *         cleared. Read it before searching for a route to put with
+	 *         put(route, mode, generation).
+	 */
+	public synchronized long generation(boolean isTime) {
+		return generations[isTime ? 1 : 0];
+	}
+
+	/**
+	 * Puts route, found by the given mode of search, unless the routes for its
+	 * metric have been cleared since generation, when it may be out of date.
+	 */
+	public synchronized void put(Route route, SearchMode mode, long generation) {
+		if (generation == generations[route.isTime ? 1 : 0]) put(route, mode);
+	}
+
+	public synchronized void put(Route route, SearchMode mode) {
+		Key key = new Key(route.start, route.goal, route.isTime, mode);
+		Route old = routes.put(key, route);
+		if (old != null) bytes -= bytesOf(old);
+		bytes += bytesOf(route);
+		Iterator<Map.Entry<Key, Route>> it = routes.entrySet().iterator();
+		while ((bytes > maxBytes || routes.size() > maxRoutes) && it.hasNext()) {
+			Map.Entry<Key, Route> eldest = it.next();
+			// never evict the route that's just been added.
+			if (eldest.getKey().equals(key)) continue;
+			bytes -= bytesOf(eldest.getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Forgets every route, for when the graph they were found on is replaced
+	 * or its weights change.
+	 */
+	public synchronized void clear() {
+		routes.clear();
+		bytes = 0;
+		generations[0]++;
+		generations[1]++;
+	}
+
+	/**
+	 * Forgets the routes for one metric, for when only its costs change, as
+	 * time costs do with traffic.
+	 */
+	public synchronized void clear(boolean isTime) {
+		Iterator<Map.Entry<Key, Route>> it = routes.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, Route> entry = it.next();
+			if (entry.getKey().isTime != isTime) continue;
+			bytes -= bytesOf(entry.getValue());
+			it.remove();
+		}
+		generations[isTime ? 1 : 0]++;
+	}
+
+	public synchronized int size() {
+		return routes.size();
+	}
+
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	public synchronized long hits() {
+		return hits;
+	}
+
+	public synchronized long misses() {
+		return misses;
+	}
+
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d of %d routes, %.1f of %.1f MB, %d hits, %d misses, %d evictions", routes.size(),
+				maxRoutes, bytes / 1e6, maxBytes / 1e6, hits, misses, evictions);
+	}
+
+	/**
+	 * What a route is cached by. The start, goal, metric and mode don't fit
+	 * in a long together, so they're kept as they are.
+	 */
+	private static final class Key {
+		final int start, goal;
+		final boolean isTime;
+		final SearchMode mode;
+
+		Key(int start, int goal, boolean isTime, SearchMode mode) {
+			this.start = start;
+			this.goal = goal;
+			this.isTime = isTime;
+			this.mode = mode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key other = (Key) o;
+			return start == other.start && goal == other.goal && isTime == other.isTime && mode == other.mode;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((start * 31 + goal) * 2 + (isTime ? 1 : 0)) * 31 + mode.ordinal();
+		}
+	}
+
+	private static long bytesOf(Route route) {
+		return ROUTE_OVERHEAD + 4L * route.edgeCount();
+	}
+}
@@ -0,0 +1,949 @@
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * RouteFinder runs A* searches over a RoutingGraph, taking into account
+ * one-way streets and prohibited turns. It keeps no per-query state of its
+ * own, so one RouteFinder can be shared by any number of threads: each query
+ * works in a SearchContext, either one passed in or one borrowed from a pool
+ * for the length of the query. A search on a thread that's interrupted gives
+ * up with a CancellationException, so one submitted to an executor can be
+ * cancelled with Future.cancel(true).
+ */
+public class RouteFinder {
+	// how far, as a share of the estimate, the straight-line estimates of
+	// two nodes in a straight line with the goal can be out by rounding.
+	private static final double ESTIMATE_ROUNDING = 1e-12;
+
+	public final RoutingGraph graph;
+	// sets of contexts not in use by a query. They're pooled rather than kept
+	// per thread so that a server making a thread per request, as it can with
+	// virtual threads, doesn't make a new set for every request too.
+	private final ConcurrentLinkedDeque<Workspace> workspaces = new ConcurrentLinkedDeque<>();
+	// contraction hierarchies and landmark tables for distance and time,
+	// built when first needed. The hierarchies are built holding
+	// hierarchyBuild rather than their own lock, so new weights needn't wait
+	// for a build.
+	private final ContractionHierarchy[] hierarchies = new ContractionHierarchy[2];
+	private final Object hierarchyBuild = new Object();
+	private final Landmarks[] landmarks = new Landmarks[2];
+
+	// where the pooled searches are recorded, if anywhere.
+	private volatile SearchMetrics metrics;
+	// the edge costs searches use. Each search reads this once when it
+	// starts, so it sees one version of them throughout.
+	private volatile EdgeWeights weights;
+	// rebuilds the time hierarchy for new weights, made when first needed.
+	private ExecutorService customizer;
+	// how speeds change over the day, for time-dependent searches.
+	private volatile SpeedProfiles profiles;
+
+	public RouteFinder(RoutingGraph graph) {
+		this.graph = graph;
+		this.weights = new EdgeWeights(graph);
+	}
+
+	public EdgeWeights weights() {
+		return weights;
+	}
+
+	/**
+	 * Makes searches from now on use the given weights, as TrafficLayer
+	 * publishes them. Searches already running carry on with the ones they
+	 * started with. If there's a time hierarchy, it's customized to the new
+	 * weights in the background, and until that's done hierarchy searches by
+	 * time fall back to bidirectional A*.
+	 */
+	public void setWeights(EdgeWeights weights) {
+		if (weights.graph != graph) throw new IllegalArgumentException("weights are for another graph");
+		this.weights = weights;
+		synchronized (hierarchies) {
+			// one still being built is customized once it's published.
+			if (hierarchies[1] != null) scheduleCustomize();
+		}
+	}
+
+	/**
+	 * Customizes the time hierarchy in the background. The caller holds the
+	 * hierarchies lock.
+	 */
+	private void scheduleCustomize() {
+		if (customizer == null) {
+			customizer = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "hierarchy customizer");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		customizer.execute(this::customize);
+	}
+
+	/**
+	 * Customizes the time hierarchy to the latest weights, unless it already
+	 * is. When updates come faster than this, the ones queued up behind it
+	 * find there's nothing left to do.
+	 */
+	private void customize() {
+		ContractionHierarchy ch;
+		synchronized (hierarchies) {
+			ch = hierarchies[1];
+		}
+		EdgeWeights target = weights;
+		if (ch.weights == target) return;
+		ContractionHierarchy customized = ch.customize(target);
+		synchronized (hierarchies) {
+			if (hierarchies[1] == ch) hierarchies[1] = customized;
+		}
+	}
+
+	/**
+	 * @return the hierarchy for the metric if it's built for costs, or null if
+	 *         it's still being customized to them.
+	 */
+	private ContractionHierarchy hierarchy(boolean isTime, EdgeWeights costs) {
+		ContractionHierarchy ch = hierarchy(isTime);
+		// distances don't change with traffic.
+		return !isTime || ch.weights == costs ? ch : null;
+	}
+
+	/**
+	 * Records every search made with the pooled findRoute into metrics, or
+	 * stops recording if it's null.
+	 */
+	public void setMetrics(SearchMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public SearchMetrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the speed profiles time-dependent searches use, the standard
+	 *         ones unless others have been set.
+	 */
+	public SpeedProfiles profiles() {
+		SpeedProfiles p = profiles;
+		if (p == null) profiles = p = SpeedProfiles.standard(graph);
+		return p;
+	}
+
+	public void setProfiles(SpeedProfiles profiles) {
+		if (profiles.graph != graph) throw new IllegalArgumentException("profiles are for another graph");
+		this.profiles = profiles;
+	}
+
+	/**
+	 * Finds the quickest route setting off at departAt, in hours since
+	 * midnight, using pooled SearchContexts.
+	 */
+	public Route findRoute(int start, int goal, double departAt) {
+		Workspace w = borrow();
+		try {
+			return findRoute(w.forward(), start, goal, departAt, profiles());
+		} finally {
+			giveBack(w);
+		}
+	}
+
+	/**
+	 * Finds a route using pooled SearchContexts.
+	 */
+	public Route findRoute(int start, int goal, boolean isTime) {
+		return findRoute(start, goal, isTime, SearchMode.ASTAR);
+	}
+
+	/**
+	 * Finds a route using pooled SearchContexts and the given mode.
+	 */
+	public Route findRoute(int start, int goal, boolean isTime, SearchMode mode) {
+		return findRoute(start, goal, isTime, mode, null);
+	}
+
+	/**
+	 * Finds a route using pooled SearchContexts and the given mode, and
+	 * records it in the metrics if they're enabled. If searchSpace isn't null
+	 * and the metrics are sampling the search space, it's passed the nodes
+	 * the search settled (every nth one, and some more than once).
+	 */
+	public Route findRoute(int start, int goal, boolean isTime, SearchMode mode, IntConsumer searchSpace) {
+		SearchMetrics metrics = this.metrics;
+		boolean recording = metrics != null && metrics.isEnabled();
+		int sampling = metrics == null || searchSpace == null ? 0 : metrics.getSearchSpaceSampling();
+		Workspace w = borrow();
+		try {
+			if (!recording && sampling == 0) return search(w, start, goal, isTime, mode);
+			// so the contexts this query doesn't use count nothing.
+			w.begin();
+			long t0 = System.nanoTime();
+			Route route = search(w, start, goal, isTime, mode);
+			long nanos = System.nanoTime() - t0;
+			if (recording) {
+				long settled = 0, relaxed = 0, turnChecks = 0, peak = 0;
+				for (SearchContext ctx : w.contexts()) {
+					if (ctx == null) continue;
+					settled += ctx.settledCount();
+					relaxed += ctx.relaxed;
+					turnChecks += ctx.turnChecks;
+					peak += ctx.fringe.peak();
+				}
+				metrics.record(settled, relaxed, turnChecks, peak, nanos, route.edgeCount());
+			}
+			if (sampling > 0) w.sampleSettled(sampling, searchSpace);
+			return route;
+		} finally {
+			giveBack(w);
+		}
+	}
+
+	private Route search(Workspace w, int start, int goal, boolean isTime, SearchMode mode) {
+		switch (mode) {
+			case BIDIRECTIONAL:
+				return findRoute(w.forward(), w.reverse(), start, goal, isTime);
+			case HIERARCHY:
+				ContractionHierarchy ch = hierarchy(isTime, weights);
+				if (ch != null) {
+					Route route = ch.findRoute(w.nodeForward(), w.nodeReverse(), start, goal);
+					// the hierarchy doesn't know about prohibited turns, so fall
+					// back to a search that does on the rare route that needs one.
+					if (isAllowed(route)) return route;
+				}
+				return findRoute(w.forward(), w.reverse(), start, goal, isTime);
+			case LANDMARKS:
+				return findRoute(w.forward(), start, goal, isTime, landmarks(isTime));
+			default:
+				return findRoute(w.forward(), start, goal, isTime);
+		}
+	}
+
+	/**
+	 * Finds the cheapest routes from start to every node in goals, using
+	 * pooled SearchContexts.
+	 *
+	 * @see #oneToMany(SearchContext, int, int[], boolean)
+	 */
+	public double[] oneToMany(int start, int[] goals, boolean isTime) {
+		Workspace w = borrow();
+		try {
+			return oneToMany(w.forward(), start, goals, isTime);
+		} finally {
+			giveBack(w);
+		}
+	}
+
+	/**
+	 * Finds everything reachable from start within budget (km, or hours for
+	 * time), using pooled SearchContexts. With SearchMode.HIERARCHY this is
+	 * a PHAST sweep over the contraction hierarchy, which like the
+	 * hierarchy's routes doesn't know about prohibited turns; with any other
+	 * mode it is an edge-based Dijkstra search, which does.
+	 */
+	public Isochrone isochrone(int start, double budget, boolean isTime, SearchMode mode) {
+		Workspace w = borrow();
+		try {
+			ContractionHierarchy ch = mode == SearchMode.HIERARCHY ? hierarchy(isTime, weights) : null;
+			if (ch != null) return isochrone(w.nodeForward(), w.sweep(), start, budget, ch);
+			return isochrone(w.forward(), start, budget, isTime);
+		} finally {
+			giveBack(w);
+		}
+	}
+
+	/**
+	 * Finds everything reachable from start within budget with an edge-based
+	 * Dijkstra search, which stops as soon as its smallest key is over the
+	 * budget and never queues an edge that ends over it. ctx must come from
+	 * newContext.
+	 */
+	public Isochrone isochrone(SearchContext ctx, int start, double budget, boolean isTime) {
+		RoutingGraph rg = graph;
+		EdgeWeights costs = weights;
+		TurnRestrictions turns = rg.turns;
+		IndexedHeap fringe = ctx.fringe;
+		int m = rg.edgeCount();
+		ContractionHierarchy.IntList reached = new ContractionHierarchy.IntList();
+		ctx.begin();
+		ctx.reach(m + start, 0, -1);
+		ctx.settle(m + start);
+		reached.add(start);
+		for (int e = rg.offsets[start]; e < rg.offsets[start + 1]; e++) {
+			double cost = costs.cost(e, isTime);
+			if (cost <= budget && reach(ctx, turns, e, cost, -1)) fringe.push(e, cost);
+		}
+
+		while (!fringe.isEmpty() && fringe.peekKey() <= budget) {
+			int current = fringe.poll();
+			int node = rg.targets[current];
+			double currentCost = ctx.dist(current);
+			if (turns.isRestricted(node)) {
+				ctx.settle(current);
+				// the search never labels a restricted node itself, so its
+				// label marks that it has been reached, by the first edge in.
+				if (!ctx.isSettled(m + node)) {
+					ctx.reach(m + node, currentCost, current);
+					ctx.settle(m + node);
+					reached.add(node);
+				}
+			} else {
+				if (ctx.isSettled(m + node)) continue;
+				ctx.settle(m + node);
+				reached.add(node);
+			}
+			for (int e = rg.offsets[node]; e < rg.offsets[node + 1]; e++) {
+				if (turns.isProhibited(current, e)) continue;
+				double costSoFar = currentCost + costs.cost(e, isTime);
+				if (costSoFar <= budget && reach(ctx, turns, e, costSoFar, current)) fringe.push(e, costSoFar);
+			}
+		}
+
+		int[] nodes = reached.toArray();
+		double[] reachedCosts = new double[nodes.length];
+		for (int i = 0; i < nodes.length; i++)
+			reachedCosts[i] = ctx.dist(m + nodes[i]);
+		return new Isochrone(rg, start, budget, isTime, nodes, reachedCosts, boundary(nodes, v -> ctx.isSettled(m + v)));
+	}
+
+	/**
+	 * Finds everything reachable from start within budget with PHAST: an
+	 * upward search in the hierarchy from start, cut off at the budget,
+	 * then one sweep down through every node in reverse contraction order,
+	 * which settles each from the more important nodes above it. ctx must be
+	 * a node-sized SearchContext, and sweep a node-sized array, both of which
+	 * are overwritten.
+	 */
+	public Isochrone isochrone(SearchContext ctx, double[] sweep, int start, double budget, ContractionHierarchy ch) {
+		ctx.begin();
+		ctx.reach(start, 0, -1);
+		ctx.fringe.push(start, 0);
+		while (!ctx.fringe.isEmpty() && ctx.fringe.peekKey() <= budget) {
+			int current = ctx.fringe.poll();
+			ctx.settle(current);
+			double currentCost = ctx.dist(current);
+			for (int i = ch.upOffsets[current]; i < ch.upOffsets[current + 1]; i++) {
+				int e = ch.upEdges[i];
+				int next = ch.to[e];
+				double costSoFar = currentCost + ch.cost[e];
+				if (costSoFar > budget || ctx.isSettled(next) || costSoFar >= ctx.dist(next)) continue;
+				ctx.reach(next, costSoFar, e);
+				ctx.fringe.push(next, costSoFar);
+			}
+		}
+
+		// every edge into v from above is listed at v, and everything above
+		// has been swept by the time v is.
+		ContractionHierarchy.IntList reached = new ContractionHierarchy.IntList();
+		for (int r = ch.order.length - 1; r >= 0; r--) {
+			int v = ch.order[r];
+			double best = ctx.dist(v);
+			for (int i = ch.downOffsets[v]; i < ch.downOffsets[v + 1]; i++) {
+				int e = ch.downEdges[i];
+				best = Math.min(best, sweep[ch.from[e]] + ch.cost[e]);
+			}
+			sweep[v] = best;
+			if (best <= budget) reached.add(v);
+		}
+
+		int[] nodes = reached.toArray();
+		double[] costs = new double[nodes.length];
+		for (int i = 0; i < nodes.length; i++)
+			costs[i] = sweep[nodes[i]];
+		return new Isochrone(graph, start, budget, ch.isTime, nodes, costs, boundary(nodes, v -> sweep[v] <= budget));
+	}
+
+	/**
+	 * @return the edges from the given reached nodes to nodes that aren't.
+	 */
+	private int[] boundary(int[] nodes, IntPredicate isReached) {
+		ContractionHierarchy.IntList boundary = new ContractionHierarchy.IntList();
+		for (int v : nodes) {
+			for (int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++) {
+				if (!isReached.test(graph.targets[e])) boundary.add(e);
+			}
+		}
+		return boundary.toArray();
+	}
+
+	private Workspace borrow() {
+		Workspace w = workspaces.pollFirst();
+		return w == null ? new Workspace() : w;
+	}
+
+	private void giveBack(Workspace w) {
+		// most recently used first, as its arrays are the likeliest to still
+		// be in cache.
+		workspaces.offerFirst(w);
+	}
+
+	/**
+	 * The contexts one query can need, made when first needed: two for the
+	 * edge-based searches (the second for the backward half of the
+	 * bidirectional search), two node-based ones for the contraction
+	 * hierarchy, and a node-sized array for the PHAST sweep.
+	 */
+	private final class Workspace {
+		private SearchContext forward, reverse, nodeForward, nodeReverse;
+		private double[] sweep;
+
+		SearchContext forward() {
+			if (forward == null) forward = newContext();
+			return forward;
+		}
+
+		SearchContext reverse() {
+			if (reverse == null) reverse = newContext();
+			return reverse;
+		}
+
+		SearchContext nodeForward() {
+			if (nodeForward == null) nodeForward = new SearchContext(graph);
+			return nodeForward;
+		}
+
+		SearchContext nodeReverse() {
+			if (nodeReverse == null) nodeReverse = new SearchContext(graph);
+			return nodeReverse;
+		}
+
+		double[] sweep() {
+			if (sweep == null) sweep = new double[graph.size()];
+			return sweep;
+		}
+
+		SearchContext[] contexts() {
+			return new SearchContext[] { forward, reverse, nodeForward, nodeReverse };
+		}
+
+		/**
+		 * Starts an empty query in every context made so far.
+		 */
+		void begin() {
+			for (SearchContext ctx : contexts()) {
+				if (ctx != null) ctx.begin();
+			}
+		}
+
+		/**
+		 * Passes every nth node settled in the last query to action. Edge
+		 * labels are turned into the node they lead to (or for the backward
+		 * half of a search, lead from).
+		 */
+		void sampleSettled(int n, IntConsumer action) {
+			int m = graph.edgeCount();
+			int[] count = { 0 };
+			SearchContext[] contexts = contexts();
+			for (int c = 0; c < contexts.length; c++) {
+				if (contexts[c] == null) continue;
+				boolean isEdgeBased = c < 2, isBackward = c == 1;
+				contexts[c].forEachSettled(item -> {
+					if (count[0]++ % n != 0) return;
+					if (!isEdgeBased) action.accept(item);
+					else if (item >= m) action.accept(item - m);
+					else action.accept(isBackward ? graph.sources[item] : graph.targets[item]);
+				});
+			}
+		}
+	}
+
+	/**
+	 * @return the contraction hierarchy for the given metric, building it
+	 *         on first use. The time hierarchy may be for older weights if
+	 *         it's being customized to new ones.
+	 */
+	public ContractionHierarchy hierarchy(boolean isTime) {
+		int i = isTime ? 1 : 0;
+		synchronized (hierarchies) {
+			if (hierarchies[i] != null) return hierarchies[i];
+		}
+		synchronized (hierarchyBuild) {
+			synchronized (hierarchies) {
+				// built while this waited for another build.
+				if (hierarchies[i] != null) return hierarchies[i];
+			}
+			ContractionHierarchy ch = new ContractionHierarchy(weights, isTime);
+			synchronized (hierarchies) {
+				hierarchies[i] = ch;
+				// the weights changed while it was being built.
+				if (isTime && ch.weights != weights) scheduleCustomize();
+				return ch;
+			}
+		}
+	}
+
+	/**
+	 * @return the landmark tables for the given metric, building them on
+	 *         first use.
+	 */
+	public Landmarks landmarks(boolean isTime) {
+		int i = isTime ? 1 : 0;
+		synchronized (landmarks) {
+			if (landmarks[i] == null) landmarks[i] = new Landmarks(graph, isTime, Landmarks.DEFAULT_COUNT);
+			return landmarks[i];
+		}
+	}
+
+	/**
+	 * @return a new SearchContext the right size for this RouteFinder's
+	 *         searches, which label edges as well as nodes. Edge e is item e
+	 *         of the context and node v is item edgeCount() + v.
+	 */
+	public SearchContext newContext() {
+		return new SearchContext(graph.edgeCount() + graph.size());
+	}
+
+	/**
+	 * Finds the cheapest route from start to goal, by distance or by time,
+	 * with the straight-line heuristic. ctx must come from newContext.
+	 */
+	public Route findRoute(SearchContext ctx, int start, int goal, boolean isTime) {
+		return findRoute(ctx, start, goal, isTime, null);
+	}
+
+	/**
+	 * Finds the cheapest route from start to goal, by distance or by time,
+	 * using the landmark heuristic if alt isn't null. ctx must come from
+	 * newContext.
+	 *
+	 * The search is edge-based: each edge is labelled with the cheapest way
+	 * to reach its end by travelling along it, and the edge before it on that
+	 * way. Whether a turn is prohibited depends on the edge it comes from, so
+	 * a node reached by a way that can't turn somewhere can still be left
+	 * that way by another route to it. At a node with no prohibited turns the
+	 * edge it was reached by makes no difference, so there only the cheapest
+	 * edge into it is kept (as the node's own label) and the search is no more
+	 * work than a node-based one.
+	 */
+	public Route findRoute(SearchContext ctx, int start, int goal, boolean isTime, Landmarks alt) {
+		RoutingGraph rg = graph;
+		EdgeWeights costs = weights;
+		TurnRestrictions turns = rg.turns;
+		IndexedHeap fringe = ctx.fringe;
+		int m = rg.edgeCount();
+		// landmark costs are stored as floats, so consecutive estimates can be
+		// out by a rounding error.
+		double tolerance = alt == null ? 0 : alt.tolerance();
+		ctx.begin();
+		if (start == goal) return Route.fromContext(rg, ctx, start, goal, -1, isTime, costs);
+		ctx.reach(m + start, 0, -1);
+
+		// the edges out of start have nothing to turn from.
+		ctx.relaxed += rg.offsets[start + 1] - rg.offsets[start];
+		for (int e = rg.offsets[start]; e < rg.offsets[start + 1]; e++) {
+			double cost = costs.cost(e, isTime);
+			double estCost = cost + heuristic(rg.targets[e], goal, isTime, alt);
+			if (estCost == Double.POSITIVE_INFINITY) continue;
+			if (!reach(ctx, turns, e, cost, -1)) continue;
+			fringe.push(e, estCost);
+		}
+
+		int last = -1;
+		while (!fringe.isEmpty()) {
+			double estCost = fringe.peekKey();
+			int current = fringe.poll();
+			int node = rg.targets[current];
+			if (turns.isRestricted(node)) {
+				ctx.settle(current);
+			} else {
+				// a cheaper edge into node has already been expanded.
+				if (ctx.isSettled(m + node)) continue;
+				ctx.settle(m + node);
+			}
+			if (node == goal) {
+				last = current;
+				break;
+			}
+			double currentCost = ctx.dist(current);
+			count(ctx, turns, node, rg.offsets[node + 1] - rg.offsets[node]);
+
+			for (int e = rg.offsets[node]; e < rg.offsets[node + 1]; e++) {
+				double costSoFar = currentCost + costs.cost(e, isTime);
+				if (turns.isProhibited(current, e)) continue;
+
+				double nextEstCost = costSoFar + heuristic(rg.targets[e], goal, isTime, alt);
+				assert estCost <= nextEstCost + tolerance + ESTIMATE_ROUNDING * nextEstCost : "Inconsistent heuristic";
+				// the landmarks can tell when the goal is unreachable from e.
+				if (nextEstCost == Double.POSITIVE_INFINITY) continue;
+				if (!reach(ctx, turns, e, costSoFar, current)) continue;
+				fringe.push(e, nextEstCost);
+			}
+		}
+
+		return Route.fromContext(rg, ctx, start, goal, last, isTime, costs);
+	}
+
+	/**
+	 * Finds the quickest route from start to goal setting off at departAt, in
+	 * hours since midnight, when the speeds change over the day as profiles
+	 * says. ctx must come from newContext.
+	 *
+	 * This is the edge-based A* search by time with each edge's cost worked
+	 * out when the search gets to it, for the time it's entered: the label of
+	 * an edge is the hours from setting off to reaching its end. Every edge is
+	 * FIFO, so reaching an edge earlier is never worse, and keeping the
+	 * earliest way to each edge (or node) is still enough. No factor is more
+	 * than 1, so the straight-line time at the highest speed limit is still a
+	 * lower bound. Live traffic speeds aren't applied.
+	 */
+	public Route findRoute(SearchContext ctx, int start, int goal, double departAt, SpeedProfiles profiles) {
+		RoutingGraph rg = graph;
+		if (profiles.graph != rg) throw new IllegalArgumentException("profiles are for another graph");
+		TurnRestrictions turns = rg.turns;
+		IndexedHeap fringe = ctx.fringe;
+		int m = rg.edgeCount();
+		ctx.begin();
+		if (start == goal) return Route.fromContext(rg, ctx, start, goal, -1, true, null);
+		ctx.reach(m + start, 0, -1);
+
+		ctx.relaxed += rg.offsets[start + 1] - rg.offsets[start];
+		for (int e = rg.offsets[start]; e < rg.offsets[start + 1]; e++) {
+			double cost = profiles.travelTime(e, departAt);
+			if (!reach(ctx, turns, e, cost, -1)) continue;
+			fringe.push(e, cost + heuristic(rg.targets[e], goal, true));
+		}
+
+		int last = -1;
+		while (!fringe.isEmpty()) {
+			int current = fringe.poll();
+			int node = rg.targets[current];
+			if (turns.isRestricted(node)) {
+				ctx.settle(current);
+			} else {
+				if (ctx.isSettled(m + node)) continue;
+				ctx.settle(m + node);
+			}
+			if (node == goal) {
+				last = current;
+				break;
+			}
+			double currentCost = ctx.dist(current);
+			count(ctx, turns, node, rg.offsets[node + 1] - rg.offsets[node]);
+
+			for (int e = rg.offsets[node]; e < rg.offsets[node + 1]; e++) {
+				if (turns.isProhibited(current, e)) continue;
+				double costSoFar = currentCost + profiles.travelTime(e, departAt + currentCost);
+				if (!reach(ctx, turns, e, costSoFar, current)) continue;
+				fringe.push(e, costSoFar + heuristic(rg.targets[e], goal, true));
+			}
+		}
+
+		return Route.fromContext(rg, ctx, start, goal, last, true, null);
+	}
+
+	/**
+	 * Finds the cheapest routes from start to every node in goals at once,
+	 * with one edge-based Dijkstra search (the A* search with no heuristic)
+	 * that stops once every goal has been settled. ctx must come from
+	 * newContext.
+	 *
+	 * @return in [i], the length of the route to goals[i] in km, or for time
+	 *         the hours it takes with the traffic searched with, as
+	 *         Route.total gives for the route findRoute finds. Unreachable
+	 *         goals are infinity.
+	 */
+	public double[] oneToMany(SearchContext ctx, int start, int[] goals, boolean isTime) {
+		RoutingGraph rg = graph;
+		EdgeWeights costs = weights;
+		TurnRestrictions turns = rg.turns;
+		IndexedHeap fringe = ctx.fringe;
+		int m = rg.edgeCount();
+		boolean[] isGoal = new boolean[rg.size()];
+		int remaining = 0;
+		for (int goal : goals) {
+			if (goal != start && !isGoal[goal]) {
+				isGoal[goal] = true;
+				remaining++;
+			}
+		}
+		ctx.begin();
+		ctx.reach(m + start, 0, -1);
+		for (int e = rg.offsets[start]; e < rg.offsets[start + 1]; e++) {
+			double cost = costs.cost(e, isTime);
+			if (reach(ctx, turns, e, cost, -1)) fringe.push(e, cost);
+		}
+
+		while (remaining > 0 && !fringe.isEmpty()) {
+			int current = fringe.poll();
+			int node = rg.targets[current];
+			if (turns.isRestricted(node)) {
+				ctx.settle(current);
+			} else {
+				if (ctx.isSettled(m + node)) continue;
+				ctx.settle(m + node);
+			}
+			// the first label of a goal settled is the cheapest way to it.
+			if (isGoal[node]) {
+				isGoal[node] = false;
+				remaining--;
+			}
+			double currentCost = ctx.dist(current);
+			for (int e = rg.offsets[node]; e < rg.offsets[node + 1]; e++) {
+				if (turns.isProhibited(current, e)) continue;
+				double costSoFar = currentCost + costs.cost(e, isTime);
+				if (reach(ctx, turns, e, costSoFar, current)) fringe.push(e, costSoFar);
+			}
+		}
+
+		double[] totals = new double[goals.length];
+		for (int i = 0; i < goals.length; i++) {
+			int goal = goals[i];
+			if (goal == start) continue;
+			// the edge into goal the cheapest way to it arrives by. At a
+			// restricted node that's the cheapest labelled edge into it, as no
+			// unsettled label can be cheaper than one that's settled.
+			int last = -1;
+			if (!turns.isRestricted(goal)) {
+				if (ctx.isSettled(m + goal)) last = ctx.prevEdge(m + goal);
+			} else {
+				double best = Double.POSITIVE_INFINITY;
+				for (int j = rg.reverseOffsets[goal]; j < rg.reverseOffsets[goal + 1]; j++) {
+					int e = rg.reverseEdges[j];
+					if (ctx.isSettled(e) && ctx.dist(e) < best) {
+						best = ctx.dist(e);
+						last = e;
+					}
+				}
+			}
+			if (last < 0) {
+				totals[i] = Double.POSITIVE_INFINITY;
+				continue;
+			}
+			double total = 0;
+			for (int e = last; e >= 0; e = ctx.prevEdge(e))
+				total += isTime ? costs.travelTime(e) : rg.segments[e].length;
+			totals[i] = total;
+		}
+		return totals;
+	}
+
+	/**
+	 * Labels edge e with cost, if that is cheaper than the best known way
+	 * along it and (unless the turns at its end are restricted) the best
+	 * known way to its end node.
+	 *
+	 * @return false if the label wasn't improved, or e is already settled.
+	 */
+	private boolean reach(SearchContext ctx, TurnRestrictions turns, int e, double cost, int prev) {
+		int m = graph.edgeCount();
+		int node = graph.targets[e];
+		if (ctx.isSettled(e) || cost >= ctx.dist(e)) return false;
+		if (!turns.isRestricted(node)) {
+			if (ctx.isSettled(m + node) || cost >= ctx.dist(m + node)) return false;
+			ctx.reach(m + node, cost, e);
+		}
+		ctx.reach(e, cost, prev);
+		return true;
+	}
+
+	/**
+	 * The backward version of reach: labels edge e with cost, the cost on to
+	 * goal from its end, if that is cheaper than the best known way on from
+	 * it and (unless the turns at its start are restricted) the best known way
+	 * on from its start node, going along e, is cheaper too.
+	 *
+	 * @return false if the label wasn't improved, or e is already settled.
+	 */
+	private boolean reachBackward(SearchContext reverse, TurnRestrictions turns, EdgeWeights costs, int e, double cost,
+			int next, boolean isTime) {
+		int m = graph.edgeCount();
+		int node = graph.sources[e];
+		if (reverse.isSettled(e) || cost >= reverse.dist(e)) return false;
+		if (!turns.isRestricted(node)) {
+			double along = cost + costs.cost(e, isTime);
+			if (along >= reverse.dist(m + node)) return false;
+			reverse.reach(m + node, along, e);
+		}
+		reverse.reach(e, cost, next);
+		return true;
+	}
+
+	/**
+	 * Finds the cheapest route from start to goal by searching forward from
+	 * start in ctx and backward from goal in reverse at the same time. Both
+	 * contexts must come from newContext.
+	 *
+	 * Like the one-way search this is edge-based. The forward half labels an
+	 * edge with the cost of the best way from start to its end, and the edge
+	 * before it. The backward half labels an edge with the cost of the best
+	 * way on from its end to goal, and the edge after it, following edges
+	 * against their direction, so it only ever uses one-way roads the wrong
+	 * way round. At nodes with no prohibited turns each half also labels the
+	 * node with the best way to (or on from) it. A route is found wherever an
+	 * edge or a node has a label from both halves.
+	 *
+	 * Both halves use the same potential at the end of each edge, half the
+	 * difference between the estimates to the goal and from the start
+	 * (negated for the backward half), which makes them one Dijkstra search
+	 * on reduced edge costs seen from both ends. The best route found where
+	 * the searches meet is then optimal once the two fringes' smallest keys
+	 * add up to its cost.
+	 */
+	public Route findRoute(SearchContext ctx, SearchContext reverse, int start, int goal, boolean isTime) {
+		RoutingGraph rg = graph;
+		EdgeWeights costs = weights;
+		TurnRestrictions turns = rg.turns;
+		IndexedHeap forward = ctx.fringe, backward = reverse.fringe;
+		int m = rg.edgeCount();
+		ctx.begin();
+		reverse.begin();
+		if (start == goal) return Route.fromContext(rg, ctx, start, goal, -1, isTime, costs);
+		ctx.reach(m + start, 0, -1);
+		reverse.reach(m + goal, 0, -1);
+
+		// cheapest route seen so far, and an edge or node on it labelled by
+		// both halves.
+		double best = Double.POSITIVE_INFINITY;
+		int meeting = -1;
+
+		for (int e = rg.offsets[start]; e < rg.offsets[start + 1]; e++) {
+			double cost = costs.cost(e, isTime);
+			if (!reach(ctx, turns, e, cost, -1)) continue;
+			forward.push(e, cost + potential(rg.targets[e], start, goal, isTime));
+		}
+		for (int i = rg.reverseOffsets[goal]; i < rg.reverseOffsets[goal + 1]; i++) {
+			int e = rg.reverseEdges[i];
+			if (!reachBackward(reverse, turns, costs, e, 0, -1, isTime)) continue;
+			backward.push(e, -potential(goal, start, goal, isTime));
+		}
+		// routes straight from start to goal along one edge.
+		for (int item : new int[] { m + start, m + goal }) {
+			if (ctx.dist(item) + reverse.dist(item) < best) {
+				best = ctx.dist(item) + reverse.dist(item);
+				meeting = item;
+			}
+		}
+		for (int e = rg.offsets[start]; e < rg.offsets[start + 1]; e++) {
+			if (ctx.dist(e) + reverse.dist(e) < best) {
+				best = ctx.dist(e) + reverse.dist(e);
+				meeting = e;
+			}
+		}
+
+		while (!forward.isEmpty() && !backward.isEmpty()) {
+			if (forward.peekKey() + backward.peekKey() >= best) break;
+
+			if (forward.peekKey() <= backward.peekKey()) {
+				int current = forward.poll();
+				int node = rg.targets[current];
+				if (turns.isRestricted(node)) {
+					ctx.settle(current);
+				} else {
+					if (ctx.isSettled(m + node)) continue;
+					ctx.settle(m + node);
+				}
+				double currentCost = ctx.dist(current);
+				count(ctx, turns, node, rg.offsets[node + 1] - rg.offsets[node]);
+
+				for (int e = rg.offsets[node]; e < rg.offsets[node + 1]; e++) {
+					double costSoFar = currentCost + costs.cost(e, isTime);
+					if (turns.isProhibited(current, e)) continue;
+					if (!reach(ctx, turns, e, costSoFar, current)) continue;
+					int next = rg.targets[e];
+					forward.push(e, costSoFar + potential(next, start, goal, isTime));
+
+					// the backward half has a way on from e, or from next if
+					// it doesn't matter how next is arrived at.
+					int item = turns.isRestricted(next) ? e : m + next;
+					if (costSoFar + reverse.dist(item) < best) {
+						best = costSoFar + reverse.dist(item);
+						meeting = item;
+					}
+				}
+			} else {
+				int current = backward.poll();
+				int node = rg.sources[current];
+				// edges leaving a node with no prohibited turns all lead on the
+				// same way, so only the cheapest is worth expanding.
+				if (!turns.isRestricted(node) && reverse.prevEdge(m + node) != current) continue;
+				reverse.settle(current);
+				// the cost on to goal from node, by way of current.
+				double costSoFar = reverse.dist(current) + costs.cost(current, isTime);
+				count(reverse, turns, node, rg.reverseOffsets[node + 1] - rg.reverseOffsets[node]);
+
+				for (int i = rg.reverseOffsets[node]; i < rg.reverseOffsets[node + 1]; i++) {
+					int e = rg.reverseEdges[i];
+					if (turns.isProhibited(e, current)) continue;
+					if (!reachBackward(reverse, turns, costs, e, costSoFar, current, isTime)) continue;
+					backward.push(e, costSoFar - potential(node, start, goal, isTime));
+
+					// the forward half has a way to e, or to its start if it
+					// doesn't matter how that is left.
+					int prev = rg.sources[e];
+					int item = turns.isRestricted(prev) ? e : m + prev;
+					double before = item == e ? ctx.dist(e) + costSoFar : ctx.dist(item) + reverse.dist(item);
+					if (before < best) {
+						best = before;
+						meeting = item;
+					}
+				}
+			}
+		}
+
+		int settled = ctx.settledCount() + reverse.settledCount();
+		if (meeting < 0)
+			return new Route(rg, start, goal, isTime, null, Double.POSITIVE_INFINITY, settled, costs);
+
+		// the forward half back to start, then the backward half on to goal.
+		// A node's labels are the edges into and out of it on the route.
+		int last = meeting < m ? meeting : ctx.prevEdge(meeting);
+		int first = reverse.prevEdge(meeting);
+		int count = 0;
+		for (int e = last; e >= 0; e = ctx.prevEdge(e))
+			count++;
+		int split = count;
+		for (int e = first; e >= 0; e = reverse.prevEdge(e))
+			count++;
+		int[] edges = new int[count];
+		int i = split;
+		for (int e = last; e >= 0; e = ctx.prevEdge(e))
+			edges[--i] = e;
+		i = split;
+		for (int e = first; e >= 0; e = reverse.prevEdge(e))
+			edges[i++] = e;
+		return new Route(rg, start, goal, isTime, edges, best, settled, costs);
+	}
+
+	/**
+	 * Counts the edges a search is about to look along from node, for
+	 * SearchMetrics.
+	 */
+	private static void count(SearchContext ctx, TurnRestrictions turns, int node, int degree) {
+		ctx.relaxed += degree;
+		if (turns.isRestricted(node)) ctx.turnChecks += degree;
+	}
+
+	/**
+	 * @return false if the route makes a prohibited turn anywhere.
+	 */
+	boolean isAllowed(Route route) {
+		int[] edges = route.edges();
+		for (int i = 1; i < edges.length; i++) {
+			if (graph.turns.isProhibited(edges[i - 1], edges[i])) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The forward potential of the bidirectional search, which stays a valid
+	 * A* heuristic (after a constant shift) in both directions.
+	 */
+	private double potential(int node, int start, int goal, boolean isTime) {
+		return (heuristic(node, goal, isTime) - heuristic(node, start, isTime)) / 2;
+	}
+
+	private double heuristic(int node, int goal, boolean isTime, Landmarks alt) {
+		if (alt != null) return alt.lowerBound(node, goal);
+		return heuristic(node, goal, isTime);
+	}
+
+	/**
+	 * Straight-line distance to the goal, or the time it takes at the highest
+	 * speed limit.
+	 */
+	double heuristic(int node, int goal, boolean isTime) {
+		double distance = graph.distance(node, goal);
+		if (isTime) return distance / Road.MAX_SPEED;
+		return distance;
+	}
+}
@@ -0,0 +1,333 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * RouteServer is a headless way of getting routes: it loads a graph once and
+ * answers route queries over HTTP, with the JDK's built in server. Routes are
+ * asked for with
+ *
+ * <pre>
+ * GET /route?from=lat,lon&amp;to=lat,lon
+ * GET /route?fromNode=nodeID&amp;toNode=nodeID
+ * </pre>
+ *
+ * optionally with metric=distance (the default) or metric=time, and
+ * search=astar (the default), landmarks, bidirectional or hierarchy. A
+ * lat/lon is snapped to the nearest node. The answer is JSON with the same
+ * road-by-road breakdown Mapper shows. Its times are with the live traffic
+ * the search saw, and freeFlowTime is the whole route's at the speed limits.
+ * With metric=time, depart=HH:MM finds the quickest route setting off then,
+ * with speeds that change over the day as the RouteFinder's SpeedProfiles
+ * say, and adds how long it takes then.
+ *
+ * Each request runs on a virtual thread where the JVM has them, or a pooled
+ * thread where it doesn't. The graph and RouteFinder are only ever read, so
+ * requests share them, but the searches themselves are CPU bound and each
+ * needs its own SearchContexts, so no more of them run at once than there are
+ * processors; the rest wait their turn, which is cheap on a virtual thread.
+ * Routes already found are answered from a RouteCache without searching.
+ * What each search did is recorded in SearchMetrics, which is shown over JMX.
+ * Live traffic speeds can be fed in from a file or a socket, as TrafficLayer
+ * describes.
+ */
+public class RouteServer {
+	public static final int DEFAULT_PORT = 8261;
+	// connections the OS will queue before the server accepts them.
+	private static final int BACKLOG = 1024;
+	// how often a traffic file is checked for changes.
+	private static final long TRAFFIC_POLL_MILLIS = 5000;
+
+	private final Graph graph;
+	private final RouteFinder routeFinder;
+	private final RouteCache routeCache = new RouteCache();
+	private final SearchMetrics metrics = new SearchMetrics();
+	private final Semaphore searches = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+	public RouteServer(Graph graph) {
+		this.graph = graph;
+		this.routeFinder = new RouteFinder(graph.routing);
+		routeFinder.setMetrics(metrics);
+	}
+
+	/**
+	 * Takes live traffic speeds from layer: each update is passed on to the
+	 * route finder, and the cached time routes are dropped. Traffic doesn't
+	 * change distances, so the distance routes are kept.
+	 */
+	public void useTraffic(TrafficLayer layer) {
+		layer.addListener(weights -> {
+			routeFinder.setWeights(weights);
+			routeCache.clear(true);
+		});
+	}
+
+	/**
+	 * Starts serving on the given port, and returns the server so it can be
+	 * stopped.
+	 */
+	public HttpServer start(int port) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+		server.createContext("/route", this::handleRoute);
+		server.setExecutor(newExecutor());
+		server.start();
+		return server;
+	}
+
+	/**
+	 * @return an executor that starts a virtual thread per task, if this JVM
+	 *         has them, or else a pool of platform threads. Virtual threads
+	 *         are looked up by reflection so this still builds and runs on
+	 *         JVMs from before they were added.
+	 */
+	static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private void handleRoute(HttpExchange exchange) throws IOException {
+		int status = 200;
+		String body;
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				status = 405;
+				body = error("only GET is supported");
+			} else {
+				body = route(parseQuery(exchange.getRequestURI().getRawQuery()));
+			}
+		} catch (IllegalArgumentException e) {
+			status = 400;
+			body = error(e.getMessage());
+		} catch (NoSuchElementException e) {
+			status = 404;
+			body = error(e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			status = 503;
+			body = error("interrupted");
+		} catch (RuntimeException e) {
+			status = 500;
+			body = error(e.toString());
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Finds the route asked for by the query parameters.
+	 *
+	 * @return the route as JSON.
+	 */
+	String route(Map<String, String> params) throws InterruptedException {
+		Node from = endpoint(params, "from");
+		Node to = endpoint(params, "to");
+		String metric = params.getOrDefault("metric", "distance");
+		if (!metric.equals("distance") && !metric.equals("time"))
+			throw new IllegalArgumentException("metric must be distance or time");
+		boolean isTime = metric.equals("time");
+		SearchMode mode;
+		try {
+			mode = SearchMode.valueOf(params.getOrDefault("search", "astar").toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("unknown search " + params.get("search"));
+		}
+
+		String depart = params.get("depart");
+		if (depart != null) {
+			if (!isTime) throw new IllegalArgumentException("depart needs metric=time");
+			if (mode != SearchMode.ASTAR) throw new IllegalArgumentException("depart needs search=astar");
+			double departAt = parseDepart(depart);
+			Route route;
+			// the cache is keyed without a time of day, so these searches
+			// always run.
+			searches.acquire();
+			try {
+				route = routeFinder.findRoute(from.index, to.index, departAt);
+			} finally {
+				searches.release();
+			}
+			double duration = route.isFound() ? routeFinder.profiles().duration(route, departAt) : Double.NaN;
+			return toJson(route, from, to, metric, mode, false, depart, duration);
+		}
+
+		long generation = routeCache.generation(isTime);
+		Route route = routeCache.get(from.index, to.index, isTime, mode);
+		boolean cached = route != null;
+		if (!cached) {
+			searches.acquire();
+			try {
+				route = routeFinder.findRoute(from.index, to.index, isTime, mode);
+			} finally {
+				searches.release();
+			}
+			routeCache.put(route, mode, generation);
+		}
+		return toJson(route, from, to, metric, mode, cached, null, Double.NaN);
+	}
+
+	/**
+	 * @return the time of day HH:MM in hours since midnight.
+	 */
+	private static double parseDepart(String depart) {
+		String[] parts = depart.split(":");
+		try {
+			if (parts.length != 2) throw new NumberFormatException();
+			int hours = Integer.parseInt(parts[0].trim()), minutes = Integer.parseInt(parts[1].trim());
+			if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) throw new NumberFormatException();
+			return hours + minutes / 60.0;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("depart must be HH:MM");
+		}
+	}
+
+	/**
+	 * @return the node named by the name parameter, as a lat,lon, or by the
+	 *         nameNode parameter, as a node ID.
+	 */
+	private Node endpoint(Map<String, String> params, String name) {
+		String id = params.get(name + "Node");
+		if (id != null) {
+			Node node;
+			try {
+				node = graph.nodes.get(Integer.parseInt(id));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(name + "Node must be a node ID");
+			}
+			if (node == null) throw new NoSuchElementException("no node " + id);
+			return node;
+		}
+		String latLon = params.get(name);
+		if (latLon == null) throw new IllegalArgumentException("missing " + name + " or " + name + "Node");
+		String[] parts = latLon.split(",");
+		try {
+			if (parts.length != 2) throw new NumberFormatException();
+			Node node = graph.findNearest(
+					Location.newFromLatLon(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim())));
+			if (node == null) throw new NoSuchElementException("the graph has no nodes");
+			return node;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be lat,lon");
+		}
+	}
+
+	private static String toJson(Route route, Node from, Node to, String metric, SearchMode mode, boolean cached,
+			String depart, double duration) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"from\":").append(from.nodeID).append(",\"to\":").append(to.nodeID);
+		json.append(",\"metric\":\"").append(metric).append("\",\"search\":\"");
+		json.append(mode.name().toLowerCase(Locale.ROOT)).append('"');
+		json.append(",\"found\":").append(route.isFound());
+		json.append(",\"cached\":").append(cached);
+		json.append(",\"settled\":").append(route.settled);
+		if (route.isFound()) {
+			double distance = 0, time = 0;
+			json.append(",\"roads\":[");
+			List<Road> roads = route.roads();
+			double[] roadTimes = route.roadTimes();
+			for (int i = 0; i < roads.size(); i++) {
+				Road road = roads.get(i);
+				double roadDistance = 0, roadTime = roadTimes[i];
+				for (Segment s : road.components)
+					roadDistance += s.length;
+				distance += roadDistance;
+				time += roadTime;
+				if (i > 0) json.append(',');
+				json.append("{\"name\":");
+				appendString(json, road.name);
+				json.append(",\"city\":");
+				appendString(json, road.city);
+				json.append(String.format(Locale.ROOT, ",\"distance\":%.3f,\"time\":%.5f}", roadDistance, roadTime));
+			}
+			json.append(']');
+			json.append(String.format(Locale.ROOT, ",\"distance\":%.3f,\"time\":%.5f,\"freeFlowTime\":%.5f", distance,
+					time, route.freeFlowTime()));
+		}
+		if (depart != null) {
+			json.append(",\"depart\":");
+			appendString(json, depart);
+			if (route.isFound()) json.append(String.format(Locale.ROOT, ",\"duration\":%.5f", duration));
+		}
+		return json.append('}').toString();
+	}
+
+	private static String error(String message) {
+		StringBuilder json = new StringBuilder("{\"error\":");
+		appendString(json, message);
+		return json.append('}').toString();
+	}
+
+	private static void appendString(StringBuilder json, String s) {
+		json.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') json.append('\\').append(c);
+			else if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+			else json.append(c);
+		}
+		json.append('"');
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> params = new HashMap<>();
+		if (query == null) return params;
+		for (String pair : query.split("&")) {
+			if (pair.isEmpty()) continue;
+			int eq = pair.indexOf('=');
+			String key = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+		return params;
+	}
+
+	public static void main(String[] args) throws IOException {
+		File dir = null, trafficFile = null, profilesFile = null;
+		int port = DEFAULT_PORT, trafficPort = -1;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--traffic") && i + 1 < args.length) trafficFile = new File(args[++i]);
+			else if (args[i].equals("--traffic-port") && i + 1 < args.length) trafficPort = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--profiles") && i + 1 < args.length) profilesFile = new File(args[++i]);
+			else if (dir == null) dir = new File(args[i]);
+			else port = Integer.parseInt(args[i]);
+		}
+		if (dir == null) {
+			System.err.println("usage: java RouteServer <data directory> [port] [--traffic feed.txt] [--traffic-port port]"
+					+ " [--profiles profiles.txt]");
+			System.exit(1);
+		}
+		long t0 = System.nanoTime();
+		RouteServer server = new RouteServer(Graph.fromDirectory(dir));
+		if (profilesFile != null) server.routeFinder.setProfiles(SpeedProfiles.load(server.graph.routing, profilesFile));
+		if (trafficFile != null || trafficPort >= 0) {
+			TrafficLayer traffic = new TrafficLayer(server.graph.routing);
+			server.useTraffic(traffic);
+			if (trafficFile != null) traffic.watch(trafficFile, TRAFFIC_POLL_MILLIS);
+			if (trafficPort >= 0) traffic.listen(trafficPort);
+		}
+		server.start(port);
+		server.metrics.register("server");
+		System.out.printf("loaded %d nodes in %.0f ms, serving routes on http://localhost:%d/route%n",
+				server.graph.nodes.size(), (System.nanoTime() - t0) / 1e6, port);
+	}
+}
@@ -0,0 +1,172 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * RoutingGraph is an immutable compressed-sparse-row view of the road network
+ * that the route search runs over. Nodes are numbered 0..n-1 (in order of node
+ * ID, so the numbering is the same on every load) and the outgoing edges of
+ * node u live at [offsets[u], offsets[u+1]) of the edge arrays.
+ *
+ * A two-way Segment becomes an edge in each direction and a one-way Segment
+ * only the edge in its direction of travel, so the search never has to look at
+ * Road.oneWay. The Node, Segment and Road objects are kept alongside so that
+ * search results can be turned back into something the GUI can draw.
+ */
+public class RoutingGraph {
+	// index -> Node, and the node locations as flat arrays.
+	final Node[] nodes;
+	final double[] x, y;
+
+	// forward adjacency, one entry per directed edge.
+	final int[] offsets;
+	final int[] sources;
+	final int[] targets;
+	final double[] lengths;
+	final int[] roads;
+
+	// reverse adjacency: the edges arriving at node v are the forward edges
+	// listed at [reverseOffsets[v], reverseOffsets[v+1]) of reverseEdges.
+	final int[] reverseOffsets;
+	final int[] reverseEdges;
+
+	// index -> Road, and the speed used by the search for each road.
+	final Road[] roadTable;
+	final double[] roadSpeeds;
+
+	// the Segment each edge was built from, for drawing and path output.
+	final Segment[] segments;
+
+	// prohibited turns, as pairs of edges.
+	final TurnRestrictions turns;
+
+	public RoutingGraph(Graph graph) {
+		int n = graph.nodes.size();
+		nodes = graph.nodes.values().toArray(new Node[0]);
+		Arrays.sort(nodes, Comparator.comparingInt(node -> node.nodeID));
+		x = new double[n];
+		y = new double[n];
+		for (int i = 0; i < n; i++) {
+			nodes[i].index = i;
+			x[i] = nodes[i].location.x;
+			y[i] = nodes[i].location.y;
+		}
+
+		roadTable = graph.roads.values().toArray(new Road[0]);
+		Arrays.sort(roadTable, Comparator.comparingInt(road -> road.roadID));
+		roadSpeeds = new double[roadTable.length];
+		for (int i = 0; i < roadTable.length; i++) {
+			roadTable[i].index = i;
+			roadSpeeds[i] = roadTable[i].getSpeed(true);
+		}
+
+		// every direction a Segment can be travelled in, encoded as the
+		// segment's position in segs times two, plus one if it runs end->start.
+		Segment[] segs = graph.segments.toArray(new Segment[0]);
+		int m = 0;
+		for (Segment s : segs)
+			m += s.road.oneWay == 0 ? 2 : 1;
+		// counting sort by source, so the offsets fall out of the counts.
+		offsets = new int[n + 1];
+		for (int j = 0; j < segs.length; j++) {
+			offsets[segs[j].start.index + 1]++;
+			if (segs[j].road.oneWay == 0) offsets[segs[j].end.index + 1]++;
+		}
+		for (int u = 0; u < n; u++)
+			offsets[u + 1] += offsets[u];
+		int[] order = new int[m];
+		int[] fill = Arrays.copyOf(offsets, n);
+		for (int j = 0; j < segs.length; j++) {
+			order[fill[segs[j].start.index]++] = 2 * j;
+			if (segs[j].road.oneWay == 0) order[fill[segs[j].end.index]++] = 2 * j + 1;
+		}
+		// then order each node's few edges on everything else, so the result
+		// doesn't depend on the order the Segments came in.
+		for (int u = 0; u < n; u++) {
+			for (int a = offsets[u] + 1; a < offsets[u + 1]; a++) {
+				int d = order[a], b = a;
+				for (; b > offsets[u] && compare(segs, order[b - 1], d) > 0; b--)
+					order[b] = order[b - 1];
+				order[b] = d;
+			}
+		}
+
+		sources = new int[m];
+		targets = new int[m];
+		lengths = new double[m];
+		roads = new int[m];
+		segments = new Segment[m];
+		for (int e = 0; e < m; e++) {
+			Segment s = segs[order[e] >> 1];
+			sources[e] = from(segs, order[e]).index;
+			targets[e] = to(segs, order[e]).index;
+			lengths[e] = s.length;
+			roads[e] = s.road.index;
+			segments[e] = s;
+		}
+
+		// counting sort of the edges by target gives the reverse adjacency,
+		// with the edges into each node still in forward order.
+		reverseOffsets = new int[n + 1];
+		reverseEdges = new int[m];
+		for (int e = 0; e < m; e++)
+			reverseOffsets[targets[e] + 1]++;
+		for (int v = 0; v < n; v++)
+			reverseOffsets[v + 1] += reverseOffsets[v];
+		fill = Arrays.copyOf(reverseOffsets, n);
+		for (int e = 0; e < m; e++)
+			reverseEdges[fill[targets[e]]++] = e;
+
+		turns = new TurnRestrictions(this, graph.restrictions.values());
+	}
+
+	/**
+	 * Orders two directions leaving the same node by target, road ID and
+	 * length.
+	 */
+	private static int compare(Segment[] segs, int a, int b) {
+		int c = Integer.compare(to(segs, a).index, to(segs, b).index);
+		if (c == 0) c = Integer.compare(segs[a >> 1].road.roadID, segs[b >> 1].road.roadID);
+		if (c == 0) c = Double.compare(segs[a >> 1].length, segs[b >> 1].length);
+		return c;
+	}
+
+	private static Node from(Segment[] segs, int direction) {
+		Segment s = segs[direction >> 1];
+		return (direction & 1) == 0 ? s.start : s.end;
+	}
+
+	private static Node to(Segment[] segs, int direction) {
+		Segment s = segs[direction >> 1];
+		return (direction & 1) == 0 ? s.end : s.start;
+	}
+
+	/**
+	 * @return the number of nodes in the graph.
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * @return the number of directed edges in the graph.
+	 */
+	public int edgeCount() {
+		return targets.length;
+	}
+
+	/**
+	 * @return the cost of travelling along edge e, either its length in km or
+	 *         the hours it takes at the road's (class-weighted) search speed.
+	 */
+	public double cost(int e, boolean isTime) {
+		if (isTime) return lengths[e] / roadSpeeds[roads[e]];
+		return lengths[e];
+	}
+
+	/**
+	 * @return straight-line distance between nodes u and v.
+	 */
+	public double distance(int u, int v) {
+		return Math.hypot(x[u] - x[v], y[u] - y[v]);
+	}
+}
@@ -0,0 +1,129 @@
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntConsumer;
+
+/**
+ * SearchContext holds the per-query state of a route search over a
+ * RoutingGraph: the fringe, the cost of the best known way to each node, the
+ * edge that way arrives by, and which nodes are settled. Searches that take
+ * turn restrictions into account label edges instead of nodes, so they use a
+ * context sized for the edges, where the "edge" each way arrives by is the
+ * previous edge of the route. Keeping this out of
+ * the graph means any number of searches can run over one loaded map at once,
+ * each with its own context.
+ *
+ * A context is reused from one query to the next. Rather than clearing its
+ * arrays, begin() bumps a generation number, and any entry stamped with an
+ * older generation reads as unreached. A context must only be used by one
+ * thread at a time.
+ *
+ * Every search settles labels as it goes, so settling is also where a search
+ * finds out it's been cancelled: if the thread running it is interrupted, as
+ * Future.cancel(true) does, the next check throws a CancellationException.
+ */
+public class SearchContext {
+	// settles between checks for cancellation, a power of two.
+	private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+	final IndexedHeap fringe;
+	private final double[] dist;
+	private final int[] prevEdge;
+	// generation in which each node was last reached and last settled.
+	private final int[] reached;
+	private final int[] settled;
+	private int generation;
+	private int settledCount;
+	// work done by the current query, counted by the searches for
+	// SearchMetrics: edges looked along from settled labels, and how many of
+	// those were turns checked at nodes that have prohibited turns.
+	int relaxed, turnChecks;
+
+	public SearchContext(RoutingGraph graph) {
+		this(graph.size());
+	}
+
+	/**
+	 * Makes a context with room for the items 0..n-1.
+	 */
+	public SearchContext(int n) {
+		fringe = new IndexedHeap(n);
+		dist = new double[n];
+		prevEdge = new int[n];
+		reached = new int[n];
+		settled = new int[n];
+	}
+
+	/**
+	 * Forgets the previous query. Must be called before each search.
+	 */
+	public void begin() {
+		fringe.clear();
+		settledCount = 0;
+		relaxed = 0;
+		turnChecks = 0;
+		if (++generation == Integer.MAX_VALUE) {
+			// only reachable after two billion queries, but stale stamps
+			// would alias once the counter wraps.
+			Arrays.fill(reached, 0);
+			Arrays.fill(settled, 0);
+			generation = 1;
+		}
+	}
+
+	/**
+	 * @return the number of nodes (or edges) this context has room for.
+	 */
+	public int size() {
+		return dist.length;
+	}
+
+	/**
+	 * @return the cost of the best known way to node, or infinity if it hasn't
+	 *         been reached in this query.
+	 */
+	public double dist(int node) {
+		return reached[node] == generation ? dist[node] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return the edge the best known way to node arrives by, or -1 if it is
+	 *         the start or hasn't been reached in this query.
+	 */
+	public int prevEdge(int node) {
+		return reached[node] == generation ? prevEdge[node] : -1;
+	}
+
+	public void reach(int node, double cost, int edge) {
+		reached[node] = generation;
+		dist[node] = cost;
+		prevEdge[node] = edge;
+	}
+
+	public boolean isSettled(int node) {
+		return settled[node] == generation;
+	}
+
+	public void settle(int node) {
+		settled[node] = generation;
+		if ((++settledCount & (CANCEL_CHECK_INTERVAL - 1)) == 0 && Thread.currentThread().isInterrupted())
+			throw new CancellationException("search cancelled");
+	}
+
+	/**
+	 * Passes every item settled in this query to action, in no particular
+	 * order. This looks at every item the context has room for, so it's for
+	 * debugging rather than for searches.
+	 */
+	public void forEachSettled(IntConsumer action) {
+		for (int i = 0; i < settled.length; i++) {
+			if (settled[i] == generation) action.accept(i);
+		}
+	}
+
+	/**
+	 * @return how many nodes have been settled in this query.
+	 */
+	public int settledCount() {
+		return settledCount;
+	}
+}
@@ -0,0 +1,105 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * SearchMetrics gathers what each route search did, so a slow route can be
+ * told apart from a slow machine: how many labels it settled, how many edges
+ * it relaxed, how many of those were turns checked against the restrictions,
+ * how large its fringe got, how long it took and how many edges the route it
+ * found has. Each goes into a Histogram, and the lot can be looked at and
+ * switched on and off over JMX.
+ *
+ * One SearchMetrics can be shared by any number of RouteFinders, so it can
+ * outlive the graph they search.
+ */
+public class SearchMetrics implements SearchMetricsMXBean {
+	private final Histogram settled = new Histogram(), relaxed = new Histogram(), turnChecks = new Histogram();
+	private final Histogram peakFringe = new Histogram(), micros = new Histogram(), pathEdges = new Histogram();
+
+	private volatile boolean enabled = true;
+	private volatile int searchSpaceSampling;
+
+	/**
+	 * Registers this with the platform MBean server, under
+	 * RouteFinder:type=SearchMetrics,name=name.
+	 *
+	 * @return false if it couldn't be registered, which doesn't stop the
+	 *         metrics being recorded.
+	 */
+	public boolean register(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("RouteFinder:type=SearchMetrics,name=" + ObjectName.quote(name)));
+			return true;
+		} catch (JMException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records one search. Called by RouteFinder when enabled.
+	 */
+	void record(long settledCount, long relaxedCount, long turnCheckCount, long fringePeak, long nanos, int edges) {
+		settled.record(settledCount);
+		relaxed.record(relaxedCount);
+		turnChecks.record(turnCheckCount);
+		peakFringe.record(fringePeak);
+		micros.record(nanos / 1000);
+		pathEdges.record(edges);
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public int getSearchSpaceSampling() {
+		return searchSpaceSampling;
+	}
+
+	@Override
+	public void setSearchSpaceSampling(int everyNth) {
+		searchSpaceSampling = Math.max(0, everyNth);
+	}
+
+	@Override
+	public long getQueries() {
+		return micros.count();
+	}
+
+	@Override
+	public Map<String, Histogram.Summary> getHistograms() {
+		Map<String, Histogram.Summary> summaries = new LinkedHashMap<>();
+		summaries.put("settled", settled.summary());
+		summaries.put("edgesRelaxed", relaxed.summary());
+		summaries.put("restrictionChecks", turnChecks.summary());
+		summaries.put("peakFringe", peakFringe.summary());
+		summaries.put("wallTimeMicros", micros.summary());
+		summaries.put("pathEdges", pathEdges.summary());
+		return summaries;
+	}
+
+	@Override
+	public void reset() {
+		for (Histogram h : new Histogram[] { settled, relaxed, turnChecks, peakFringe, micros, pathEdges })
+			h.reset();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (Map.Entry<String, Histogram.Summary> entry : getHistograms().entrySet())
+			str.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+		return str.toString();
+	}
+}
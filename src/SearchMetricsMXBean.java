@@ -0,0 +1,32 @@
+import java.util.Map;
+
+/**
+ * The management interface of SearchMetrics, as seen in JConsole or any other
+ * JMX client.
+ */
+public interface SearchMetricsMXBean {
+	boolean isEnabled();
+
+	/**
+	 * Turns recording on or off. While it's off, searches aren't timed or
+	 * counted at all.
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * @return how sparsely the search space is sampled for showing on the
+	 *         map: every nth settled node, or 0 for not at all.
+	 */
+	int getSearchSpaceSampling();
+
+	void setSearchSpaceSampling(int everyNth);
+
+	long getQueries();
+
+	/**
+	 * @return a summary of each histogram, by the name of what it measures.
+	 */
+	Map<String, Histogram.Summary> getHistograms();
+
+	void reset();
+}
@@ -0,0 +1,20 @@
+/**
+ * The ways RouteFinder can search for a route, as offered in the GUI.
+ */
+public enum SearchMode {
+	ASTAR("A*"),
+	LANDMARKS("A* with landmarks"),
+	BIDIRECTIONAL("Bidirectional A*"),
+	HIERARCHY("Contraction hierarchy");
+
+	private final String label;
+
+	SearchMode(String label) {
+		this.label = label;
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+}
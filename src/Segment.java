@@ -18,21 +18,30 @@ public class Segment {
 
 	public Segment(Graph graph, int roadID, double length, int node1ID,
 			int node2ID, double[] coords) {
+		this(graph.roads.get(roadID), graph.nodes.get(node1ID),
+				graph.nodes.get(node2ID), length, toLocations(coords));
+	}
 
-		this.road = graph.roads.get(roadID);
-		this.start = graph.nodes.get(node1ID);
-		this.end = graph.nodes.get(node2ID);
+	public Segment(Road road, Node start, Node end, double length,
+			Location[] points) {
+		this.road = road;
+		this.start = start;
+		this.end = end;
 		this.length = length;
+		this.points = points;
+
+		this.road.addSegment(this);
+		this.start.addSegment(this);
+		this.end.addSegment(this);
+	}
 
-		points = new Location[coords.length / 2];
+	private static Location[] toLocations(double[] coords) {
+		Location[] points = new Location[coords.length / 2];
 		for (int i = 0; i < points.length; i++) {
 			points[i] = Location
 					.newFromLatLon(coords[2 * i], coords[2 * i + 1]);
 		}
-
-		this.road.addSegment(this);
-		this.start.addSegment(this);
-		this.end.addSegment(this);
+		return points;
 	}
 
 	public void draw(Graphics g, Location origin, double scale) {
@@ -0,0 +1,59 @@
+import java.util.Collection;
+import java.util.function.IntConsumer;
+
+/**
+ * SegmentIndex is a BoundsIndex over the bounding boxes of a graph's
+ * Segments, for finding the ones that might be visible in a window without
+ * looking at the rest.
+ */
+public class SegmentIndex {
+	// roughly how many segments share a cell.
+	private static final double SEGMENTS_PER_CELL = 4;
+
+	private final Segment[] segments;
+	private final BoundsIndex index;
+
+	public SegmentIndex(Collection<Segment> segs) {
+		segments = segs.toArray(new Segment[0]);
+		int count = segments.length;
+		double[] bounds = new double[4 * count];
+		for (int i = 0; i < count; i++) {
+			double sx0 = Double.POSITIVE_INFINITY, sy0 = Double.POSITIVE_INFINITY;
+			double sx1 = Double.NEGATIVE_INFINITY, sy1 = Double.NEGATIVE_INFINITY;
+			for (Location p : segments[i].points) {
+				sx0 = Math.min(sx0, p.x);
+				sy0 = Math.min(sy0, p.y);
+				sx1 = Math.max(sx1, p.x);
+				sy1 = Math.max(sy1, p.y);
+			}
+			bounds[4 * i] = sx0;
+			bounds[4 * i + 1] = sy0;
+			bounds[4 * i + 2] = sx1;
+			bounds[4 * i + 3] = sy1;
+		}
+		index = new BoundsIndex(bounds, count, SEGMENTS_PER_CELL);
+	}
+
+	/**
+	 * @return the number of segments in the index.
+	 */
+	public int size() {
+		return segments.length;
+	}
+
+	/**
+	 * @return segment i, in the order the segments were given in.
+	 */
+	public Segment segment(int i) {
+		return segments[i];
+	}
+
+	/**
+	 * Passes the position (in the order the segments were given in) of every
+	 * segment whose bounding box overlaps the window from (x0, y0) to (x1, y1)
+	 * to action, once each.
+	 */
+	public void query(double x0, double y0, double x1, double y1, IntConsumer action) {
+		index.query(x0, y0, x1, y1, action);
+	}
+}
@@ -0,0 +1,147 @@
+import java.util.Arrays;
+
+/**
+ * SpeedProfile is how the speed on a road changes over a day, as a share of
+ * its free-flowing speed: a piecewise-linear function of the time of day,
+ * given by its values at a few breakpoints and repeating every 24 hours. A
+ * factor is never more than 1, so traffic only ever slows a road down.
+ *
+ * The time an edge takes is found by following the speed as it changes along
+ * the way, rather than from the speed at the moment of setting off. That
+ * makes every edge FIFO: leaving later never means arriving earlier, which
+ * the time-dependent search needs to be correct.
+ *
+ * Profiles are compared by value, so equal ones can be shared.
+ */
+public class SpeedProfile {
+	public static final double DAY = 24;
+	// the least a factor can be, so a road never stops altogether.
+	public static final float MIN_FACTOR = 0.05f;
+
+	public static final SpeedProfile FREE_FLOW = new SpeedProfile(new float[] { 0 }, new float[] { 1 });
+
+	// hours since midnight, ascending from 0, and the factor at each. The
+	// last piece runs on to the first breakpoint of the next day.
+	private final float[] hours, factors;
+
+	public SpeedProfile(float[] hours, float[] factors) {
+		if (hours.length == 0 || hours.length != factors.length || hours[0] != 0)
+			throw new IllegalArgumentException("a profile needs factors at breakpoints starting at midnight");
+		for (int i = 1; i < hours.length; i++) {
+			if (!(hours[i] > hours[i - 1]) || hours[i] >= DAY)
+				throw new IllegalArgumentException("breakpoints must be ascending times of day");
+		}
+		this.hours = hours.clone();
+		this.factors = factors.clone();
+		for (int i = 0; i < this.factors.length; i++)
+			this.factors[i] = Math.max(MIN_FACTOR, Math.min(1, this.factors[i]));
+	}
+
+	/**
+	 * @return the factor at time t, in hours since midnight of any day.
+	 */
+	public double factor(double t) {
+		t = timeOfDay(t);
+		return factorIn(piece(t), t);
+	}
+
+	/**
+	 * @return the hours it takes to travel km, setting off at time t, on a road
+	 *         whose free-flowing speed is speed km/h.
+	 */
+	public double travelTime(double t, double km, double speed) {
+		if (hours.length == 1) return km / (speed * factors[0]);
+		double clock = timeOfDay(t);
+		int i = piece(clock);
+		double elapsed = 0, left = km;
+		while (true) {
+			double end = i + 1 < hours.length ? hours[i + 1] : DAY;
+			// the speed changes linearly from v0 now to v1 at the end of
+			// the piece.
+			double v0 = speed * factorIn(i, clock), v1 = speed * factorIn(i, end);
+			double span = end - clock;
+			double covered = (v0 + v1) / 2 * span;
+			if (v0 == v1 && covered >= left) return elapsed + left / v0;
+			if (covered >= left) {
+				double slope = (v1 - v0) / span;
+				// solve v0 x + slope x^2 / 2 = left for the time x, in the
+				// form that doesn't divide by a slope that may be 0.
+				return elapsed + 2 * left / (v0 + Math.sqrt(v0 * v0 + 2 * slope * left));
+			}
+			left -= covered;
+			elapsed += span;
+			i++;
+			if (i == hours.length) i = 0;
+			clock = hours[i];
+		}
+	}
+
+	/**
+	 * @return the least factor over the day, which bounds how slow the road
+	 *         can be.
+	 */
+	public double minFactor() {
+		float min = 1;
+		for (float f : factors)
+			min = Math.min(min, f);
+		return min;
+	}
+
+	/**
+	 * @return roughly how many bytes the profile takes.
+	 */
+	public int bytes() {
+		return 16 + 2 * (16 + 4 * hours.length);
+	}
+
+	/**
+	 * @return the factor in piece i at time t, which is in the piece.
+	 */
+	private double factorIn(int i, double t) {
+		int j = i + 1 < hours.length ? i + 1 : 0;
+		if (factors[j] == factors[i]) return factors[i];
+		double end = i + 1 < hours.length ? hours[i + 1] : DAY;
+		return factors[i] + (factors[j] - factors[i]) * (t - hours[i]) / (end - hours[i]);
+	}
+
+	/**
+	 * @return the piece time of day t is in.
+	 */
+	private int piece(double t) {
+		// only a handful of breakpoints, so a scan beats a binary search.
+		int i = hours.length - 1;
+		while (hours[i] > t)
+			i--;
+		return i;
+	}
+
+	private static double timeOfDay(double t) {
+		// searches mostly ask about the day they set off on, and % on a
+		// double is slow.
+		if (t >= 0 && t < DAY) return t;
+		t %= DAY;
+		return t < 0 ? t + DAY : t;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof SpeedProfile)) return false;
+		SpeedProfile other = (SpeedProfile) o;
+		return Arrays.equals(hours, other.hours) && Arrays.equals(factors, other.factors);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(hours) + Arrays.hashCode(factors);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < hours.length; i++) {
+			int minutes = Math.round(hours[i] * 60);
+			str.append(String.format("%s%02d:%02d=%.2f", i == 0 ? "" : " ", minutes / 60, minutes % 60, factors[i]));
+		}
+		return str.toString();
+	}
+}
@@ -0,0 +1,171 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SpeedProfiles gives every road of a RoutingGraph a SpeedProfile, so the time
+ * an edge takes depends on when it's travelled. Roads share profiles by road
+ * class and type, and equal profiles are only kept once, so the whole thing
+ * takes a table of a few profiles and two bytes a road.
+ *
+ * The profiles scale a road's search speed, the one time searches use, so
+ * with every factor 1 the costs are exactly the static time costs.
+ *
+ * Profiles can be read from a file, one line for a class and type:
+ *
+ * <pre>
+ * # roadClass type HH:MM=factor ..., with * for any type
+ * 4 * 00:00=1 07:00=1 08:00=0.45 09:30=1 16:30=1 17:30=0.45 19:00=1
+ * 0 * 00:00=1
+ * </pre>
+ *
+ * A road takes the line for its class and type, or failing that the one for
+ * its class and any type, or else flows freely all day.
+ */
+public class SpeedProfiles {
+	public final RoutingGraph graph;
+	// the distinct profiles, and the one each road uses, by road index.
+	private final SpeedProfile[] profiles;
+	private final short[] roadProfiles;
+
+	private SpeedProfiles(RoutingGraph graph, SpeedProfile[] profiles, short[] roadProfiles) {
+		this.graph = graph;
+		this.profiles = profiles;
+		this.roadProfiles = roadProfiles;
+	}
+
+	/**
+	 * Every road flowing freely all day.
+	 */
+	public static SpeedProfiles freeFlow(RoutingGraph graph) {
+		return of(graph, new HashMap<>());
+	}
+
+	/**
+	 * A working day's peaks, from 8:00 and 17:30 at their worst, that slow the
+	 * busier classes of road the most.
+	 */
+	public static SpeedProfiles standard(RoutingGraph graph) {
+		// the factor at the peaks, by road class.
+		float[] peak = { 0.9f, 0.8f, 0.6f, 0.45f, 0.45f };
+		float[] hours = { 0, 6.5f, 8, 9.5f, 16, 17.5f, 19 };
+		Map<String, SpeedProfile> byKey = new HashMap<>();
+		for (int c = 0; c < peak.length; c++) {
+			float f = peak[c];
+			byKey.put(c + " *", new SpeedProfile(hours, new float[] { 1, 1, f, 1, 1, f, 1 }));
+		}
+		return of(graph, byKey);
+	}
+
+	/**
+	 * Reads profiles from a file, as described above.
+	 */
+	public static SpeedProfiles load(RoutingGraph graph, File file) throws IOException {
+		Map<String, SpeedProfile> byKey = new HashMap<>();
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				String[] tokens = line.split("\\s+");
+				if (tokens.length < 3) throw new IOException("expected roadClass type HH:MM=factor ...: " + line);
+				float[] hours = new float[tokens.length - 2], factors = new float[tokens.length - 2];
+				try {
+					Integer.parseInt(tokens[0]);
+					if (!tokens[1].equals("*")) Integer.parseInt(tokens[1]);
+					for (int i = 2; i < tokens.length; i++) {
+						String[] point = tokens[i].split("[:=]");
+						if (point.length != 3) throw new NumberFormatException();
+						hours[i - 2] = Integer.parseInt(point[0]) + Integer.parseInt(point[1]) / 60f;
+						factors[i - 2] = Float.parseFloat(point[2]);
+					}
+					byKey.put(tokens[0] + " " + tokens[1], new SpeedProfile(hours, factors));
+				} catch (NumberFormatException e) {
+					throw new IOException("expected roadClass type HH:MM=factor ...: " + line);
+				} catch (IllegalArgumentException e) {
+					throw new IOException(e.getMessage() + ": " + line);
+				}
+			}
+		}
+		return of(graph, byKey);
+	}
+
+	private static SpeedProfiles of(RoutingGraph graph, Map<String, SpeedProfile> byKey) {
+		// numbers the distinct profiles in the order roads first use them.
+		Map<SpeedProfile, Integer> numbers = new LinkedHashMap<>();
+		short[] roadProfiles = new short[graph.roadTable.length];
+		for (int r = 0; r < roadProfiles.length; r++) {
+			Road road = graph.roadTable[r];
+			SpeedProfile profile = byKey.get(road.roadClass + " " + road.type);
+			if (profile == null) profile = byKey.get(road.roadClass + " *");
+			if (profile == null) profile = SpeedProfile.FREE_FLOW;
+			Integer number = numbers.get(profile);
+			if (number == null) {
+				if (numbers.size() > Short.MAX_VALUE) throw new IllegalArgumentException("too many distinct profiles");
+				number = numbers.size();
+				numbers.put(profile, number);
+			}
+			roadProfiles[r] = (short) (int) number;
+		}
+		List<SpeedProfile> profiles = new ArrayList<>(numbers.keySet());
+		return new SpeedProfiles(graph, profiles.toArray(new SpeedProfile[0]), roadProfiles);
+	}
+
+	/**
+	 * @return the profile of the road with the given RoutingGraph index.
+	 */
+	public SpeedProfile profile(int road) {
+		return profiles[roadProfiles[road]];
+	}
+
+	/**
+	 * @return the hours edge e takes at its search speed, setting off at time
+	 *         t, in hours since midnight.
+	 */
+	public double travelTime(int e, double t) {
+		int r = graph.roads[e];
+		return profiles[roadProfiles[r]].travelTime(t, graph.lengths[e], graph.roadSpeeds[r]);
+	}
+
+	/**
+	 * @return the hours route takes at the speed limits, setting off at time
+	 *         departAt, which is what Route.total gives with no traffic.
+	 */
+	public double duration(Route route, double departAt) {
+		double t = departAt;
+		for (int e : route.edges()) {
+			int r = graph.roads[e];
+			t += profiles[roadProfiles[r]].travelTime(t, graph.lengths[e], graph.roadTable[r].getSpeed(false));
+		}
+		return t - departAt;
+	}
+
+	/**
+	 * @return the number of distinct profiles.
+	 */
+	public int profileCount() {
+		return profiles.length;
+	}
+
+	/**
+	 * @return roughly how many bytes the profiles take.
+	 */
+	public long bytes() {
+		long bytes = 16 + 2L * roadProfiles.length + 16 + 4L * profiles.length;
+		for (SpeedProfile profile : profiles)
+			bytes += profile.bytes();
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d profiles for %d roads, %d bytes", profiles.length, roadProfiles.length, bytes());
+	}
+}
@@ -0,0 +1,84 @@
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TileCache holds rendered map tiles, keyed by anything with equals and
+ * hashCode, up to a limit on the bytes of pixel data they take. When adding a
+ * tile takes it over the limit, the least recently used tiles are evicted
+ * until it fits again. It's safe to use from any number of threads.
+ */
+public class TileCache<K> {
+	private final long maxBytes;
+	// in access order, so the first entry is always the least recently used.
+	private final LinkedHashMap<K, BufferedImage> tiles = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+
+	private long hits, misses, evictions;
+
+	public TileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the tile for key, or null if it isn't cached.
+	 */
+	public synchronized BufferedImage get(K key) {
+		BufferedImage tile = tiles.get(key);
+		if (tile == null) misses++;
+		else hits++;
+		return tile;
+	}
+
+	public synchronized void put(K key, BufferedImage tile) {
+		BufferedImage old = tiles.put(key, tile);
+		if (old != null) bytes -= bytesOf(old);
+		bytes += bytesOf(tile);
+		Iterator<Map.Entry<K, BufferedImage>> it = tiles.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<K, BufferedImage> eldest = it.next();
+			// never evict the tile that's just been added.
+			if (eldest.getKey().equals(key)) continue;
+			bytes -= bytesOf(eldest.getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized void clear() {
+		tiles.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return tiles.size();
+	}
+
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	public synchronized long hits() {
+		return hits;
+	}
+
+	public synchronized long misses() {
+		return misses;
+	}
+
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d tiles, %.1f of %.1f MB, %d hits, %d misses, %d evictions", tiles.size(),
+				bytes / 1e6, maxBytes / 1e6, hits, misses, evictions);
+	}
+
+	private static long bytesOf(BufferedImage tile) {
+		// every tile is a packed int image, at four bytes a pixel.
+		return 4L * tile.getWidth() * tile.getHeight();
+	}
+}
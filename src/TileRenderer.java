@@ -0,0 +1,136 @@
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * TileRenderer draws the static part of the map (segments and nodes) from
+ * square tiles of pixels, so that panning and zooming back and forth doesn't
+ * redraw the whole map on the swing thread each time. The map is split into
+ * tiles of TILE_SIZE pixels at each zoom level. Tiles that aren't cached yet
+ * are rendered by a pool of background workers, and the map is repainted as
+ * each one arrives; until then their part of the screen is left empty.
+ */
+public class TileRenderer {
+	public static final int TILE_SIZE = 256;
+	public static final long DEFAULT_CACHE_BYTES = 64L << 20;
+	// zoom levels are log(scale) rounded to this many steps, so that scales
+	// that have drifted apart in the last bits from zooming in and out again
+	// still share tiles.
+	private static final double LEVEL_RESOLUTION = 1e6;
+
+	private final Graph graph;
+	private final Runnable onTileReady;
+	private final TileCache<Tile> cache;
+	private final ExecutorService workers;
+	// tiles that have been asked for and not rendered yet.
+	private final Set<Tile> pending = ConcurrentHashMap.newKeySet();
+	// the level last drawn; queued tiles for other levels are skipped.
+	private volatile long level;
+
+	/**
+	 * @param onTileReady
+	 *            is run, on a worker thread, whenever a tile has been
+	 *            rendered and the map should be repainted.
+	 */
+	public TileRenderer(Graph graph, long maxBytes, Runnable onTileReady) {
+		this.graph = graph;
+		this.onTileReady = onTileReady;
+		this.cache = new TileCache<>(maxBytes);
+		// leave a processor for the swing thread, if there's more than one.
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		this.workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "tile-renderer");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Draws the cached tiles that cover the screen, and asks for the rest to
+	 * be rendered.
+	 */
+	public void draw(Graphics g, Dimension screen, Location origin, double scale) {
+		long level = Math.round(Math.log(scale) * LEVEL_RESOLUTION);
+		this.level = level;
+		double tileScale = scaleOf(level);
+		// the screen's top left corner, in pixels from the map's origin.
+		long left = (long) Math.floor(origin.x * tileScale), top = (long) Math.floor(-origin.y * tileScale);
+		int c0 = (int) Math.floorDiv(left, TILE_SIZE), c1 = (int) Math.floorDiv(left + screen.width - 1, TILE_SIZE);
+		int r0 = (int) Math.floorDiv(top, TILE_SIZE), r1 = (int) Math.floorDiv(top + screen.height - 1, TILE_SIZE);
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				Tile tile = new Tile(level, c, r);
+				BufferedImage image = cache.get(tile);
+				if (image != null) g.drawImage(image, (int) (c * (long) TILE_SIZE - left), (int) (r * (long) TILE_SIZE - top), null);
+				else if (pending.add(tile)) workers.execute(() -> render(tile));
+			}
+		}
+	}
+
+	private void render(Tile tile) {
+		try {
+			// the view has moved on to another zoom level since this was asked
+			// for, so it would only push tiles that are wanted out of the cache.
+			if (tile.level != level) return;
+			double scale = scaleOf(tile.level);
+			Projection projection = new Projection();
+			projection.set(new Location(tile.col * TILE_SIZE / scale, -tile.row * TILE_SIZE / scale), scale);
+			BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = image.createGraphics();
+			graph.drawBase(g, projection, new Dimension(TILE_SIZE, TILE_SIZE), scale);
+			g.dispose();
+			cache.put(tile, image);
+		} finally {
+			pending.remove(tile);
+		}
+		onTileReady.run();
+	}
+
+	/**
+	 * @return the cache of rendered tiles, for its hit and eviction counts.
+	 */
+	public TileCache<?> cache() {
+		return cache;
+	}
+
+	/**
+	 * Stops rendering and drops the cached tiles, for when the graph they're
+	 * of is replaced.
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+		cache.clear();
+	}
+
+	private static double scaleOf(long level) {
+		return Math.exp(level / LEVEL_RESOLUTION);
+	}
+
+	private static final class Tile {
+		final long level;
+		final int col, row;
+
+		Tile(long level, int col, int row) {
+			this.level = level;
+			this.col = col;
+			this.row = row;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Tile)) return false;
+			Tile t = (Tile) o;
+			return level == t.level && col == t.col && row == t.row;
+		}
+
+		@Override
+		public int hashCode() {
+			return (Long.hashCode(level) * 31 + col) * 31 + row;
+		}
+	}
+}
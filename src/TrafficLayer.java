@@ -0,0 +1,288 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * TrafficLayer puts live traffic speeds over the speed limits of a
+ * RoutingGraph. Updates come in batches, each a list of directed edges and the
+ * speed traffic is moving at along them, and each batch is published as a new
+ * EdgeWeights all at once, so a search sees either all of a batch or none of
+ * it. Listeners, like RouteFinder.setWeights, are told of every new version in
+ * order.
+ *
+ * A traffic speed only ever slows an edge down: it's capped at the road's
+ * speed limit, and the road class weighting still applies on top. The costs
+ * never drop below the ones with no traffic, so the straight line and
+ * landmark estimates, which were worked out without traffic, stay lower
+ * bounds.
+ *
+ * Feeds are text, one edge a line:
+ *
+ * <pre>
+ * # nodeID1 nodeID2 km/h, for travel from nodeID1 to nodeID2
+ * 12420 12556 15
+ * 12556 12420 -     (back to the speed limit)
+ * </pre>
+ *
+ * A file holds every traffic speed there is, and replaces all the earlier
+ * ones when it's loaded. A socket feed sends changes, in batches ended by a
+ * blank line.
+ */
+public class TrafficLayer {
+	// the slowest traffic speed, so a jammed road still has a finite cost.
+	public static final float MIN_SPEED = 1;
+
+	private final RoutingGraph graph;
+	// the traffic speed on each edge, or 0 where there isn't one. Only
+	// touched while holding the lock.
+	private final float[] speeds;
+	private int overrides;
+	private volatile EdgeWeights current;
+	private final List<Consumer<EdgeWeights>> listeners = new CopyOnWriteArrayList<>();
+
+	public TrafficLayer(RoutingGraph graph) {
+		this.graph = graph;
+		this.speeds = new float[graph.edgeCount()];
+		this.current = new EdgeWeights(graph);
+	}
+
+	/**
+	 * @return the latest weights.
+	 */
+	public EdgeWeights current() {
+		return current;
+	}
+
+	/**
+	 * Calls listener with every version published from now on.
+	 */
+	public void addListener(Consumer<EdgeWeights> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * A set of traffic speeds to apply together.
+	 */
+	public static class Batch {
+		int[] edges = new int[16];
+		// km/h, or NaN to go back to the speed limit.
+		float[] speeds = new float[16];
+		int size;
+		// lines naming edges the graph doesn't have.
+		int skipped;
+
+		public void add(int edge, float kmh) {
+			if (size == edges.length) {
+				edges = Arrays.copyOf(edges, size * 2);
+				speeds = Arrays.copyOf(speeds, size * 2);
+			}
+			edges[size] = edge;
+			speeds[size++] = kmh;
+		}
+
+		public void clear(int edge) {
+			add(edge, Float.NaN);
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int skipped() {
+			return skipped;
+		}
+	}
+
+	/**
+	 * Applies a batch and publishes the result. If replaceAll is true, every
+	 * edge not in the batch goes back to its speed limit.
+	 *
+	 * @return the new weights.
+	 */
+	public synchronized EdgeWeights apply(Batch batch, boolean replaceAll) {
+		double[] time = current.timeCosts();
+		if (replaceAll) {
+			for (int e = 0; e < speeds.length; e++) {
+				if (speeds[e] == 0) continue;
+				speeds[e] = 0;
+				time[e] = graph.cost(e, true);
+			}
+			overrides = 0;
+		}
+		for (int i = 0; i < batch.size; i++) {
+			int e = batch.edges[i];
+			float kmh = batch.speeds[i];
+			if (speeds[e] != 0) overrides--;
+			if (Float.isNaN(kmh)) {
+				speeds[e] = 0;
+				time[e] = graph.cost(e, true);
+				continue;
+			}
+			speeds[e] = Math.max(MIN_SPEED, kmh);
+			overrides++;
+			Road road = graph.roadTable[graph.roads[e]];
+			double limit = road.getSpeed(false);
+			// the road class weighting, as a share of the speed limit.
+			double searchSpeed = Math.min(speeds[e], limit) * graph.roadSpeeds[graph.roads[e]] / limit;
+			time[e] = graph.lengths[e] / searchSpeed;
+		}
+		EdgeWeights next = new EdgeWeights(graph, current.version + 1, time, overrides);
+		current = next;
+		for (Consumer<EdgeWeights> listener : listeners)
+			listener.accept(next);
+		return next;
+	}
+
+	/**
+	 * Reads feed lines into a batch, up to a blank line if untilBlank is true,
+	 * or else to the end.
+	 *
+	 * @return the batch, or null if the reader was already at its end.
+	 */
+	public Batch read(BufferedReader in, boolean untilBlank) throws IOException {
+		Batch batch = new Batch();
+		String line;
+		boolean any = false;
+		while ((line = in.readLine()) != null) {
+			any = true;
+			line = line.trim();
+			if (line.isEmpty()) {
+				if (untilBlank) return batch;
+				continue;
+			}
+			if (line.startsWith("#")) continue;
+			String[] tokens = line.split("\\s+");
+			if (tokens.length != 3) throw new IOException("expected nodeID1 nodeID2 km/h: " + line);
+			int u, v;
+			float kmh;
+			try {
+				u = index(Integer.parseInt(tokens[0]));
+				v = index(Integer.parseInt(tokens[1]));
+				kmh = tokens[2].equals("-") ? Float.NaN : Float.parseFloat(tokens[2]);
+			} catch (NumberFormatException e) {
+				throw new IOException("expected nodeID1 nodeID2 km/h: " + line);
+			}
+			int found = 0;
+			// every edge from u to v, if more than one road joins them.
+			if (u >= 0) {
+				for (int e = graph.offsets[u]; e < graph.offsets[u + 1]; e++) {
+					if (graph.targets[e] != v) continue;
+					batch.add(e, kmh);
+					found++;
+				}
+			}
+			if (found == 0) batch.skipped++;
+		}
+		return any ? batch : null;
+	}
+
+	/**
+	 * Loads a feed file, replacing all the traffic speeds with the ones in it.
+	 */
+	public EdgeWeights load(File file) throws IOException {
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			Batch batch = read(in, false);
+			return apply(batch == null ? new Batch() : batch, true);
+		}
+	}
+
+	/**
+	 * Loads file now and again whenever it changes, checking every period
+	 * milliseconds on a background thread.
+	 */
+	public void watch(File file, long period) {
+		Thread watcher = new Thread(() -> {
+			long loaded = Long.MIN_VALUE;
+			while (!Thread.currentThread().isInterrupted()) {
+				long modified = file.lastModified();
+				if (modified != loaded && modified != 0) {
+					try {
+						long t0 = System.nanoTime();
+						EdgeWeights weights = load(file);
+						loaded = modified;
+						System.out.printf("traffic version %d: %d edges from %s in %.1f ms%n", weights.version,
+								weights.overrideCount(), file, (System.nanoTime() - t0) / 1e6);
+					} catch (IOException | RuntimeException e) {
+						System.err.println("could not load traffic from " + file + ": " + e.getMessage());
+					}
+				}
+				try {
+					Thread.sleep(period);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "traffic file " + file.getName());
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Accepts feed connections on port, on background threads. Each batch a
+	 * connection sends is applied as soon as its blank line arrives, and
+	 * answered with a line giving the new version.
+	 */
+	public ServerSocket listen(int port) throws IOException {
+		ServerSocket server = new ServerSocket(port);
+		Thread acceptor = new Thread(() -> {
+			while (!server.isClosed()) {
+				try {
+					Socket socket = server.accept();
+					Thread reader = new Thread(() -> serve(socket), "traffic feed " + socket.getRemoteSocketAddress());
+					reader.setDaemon(true);
+					reader.start();
+				} catch (IOException e) {
+					return;
+				}
+			}
+		}, "traffic feed on " + port);
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return server;
+	}
+
+	private void serve(Socket socket) {
+		try (Socket s = socket;
+				Reader reader = new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8);
+				BufferedReader in = new BufferedReader(reader);
+				PrintWriter out = new PrintWriter(s.getOutputStream(), true, StandardCharsets.UTF_8)) {
+			Batch batch;
+			while ((batch = read(in, true)) != null) {
+				long t0 = System.nanoTime();
+				EdgeWeights weights = apply(batch, false);
+				out.printf("version %d: %d edges updated, %d lines skipped, %d edges with traffic, %.2f ms%n",
+						weights.version, batch.size, batch.skipped, weights.overrideCount(),
+						(System.nanoTime() - t0) / 1e6);
+			}
+		} catch (IOException e) {
+			System.err.println("traffic feed failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the RoutingGraph index of the node with the given ID, or -1.
+	 */
+	private int index(int nodeID) {
+		// the graph numbers its nodes in order of ID.
+		int lo = 0, hi = graph.size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int id = graph.nodes[mid].nodeID;
+			if (id < nodeID) lo = mid + 1;
+			else if (id > nodeID) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,106 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * TurnRestrictions holds the prohibited turns of a RoutingGraph as a set of
+ * (incoming edge, outgoing edge) pairs, compiled from the Restrictions when
+ * the graph is built. Checking a turn is then a single probe of a flat
+ * open-addressed table rather than a scan of the Restrictions at the node.
+ *
+ * A Restriction names the node before the turn, the road it arrives on, the
+ * node of the turn, the road it leaves on and the node after it. Every pair of
+ * edges that matches all five is prohibited. Roads are matched with
+ * Road.equals, as Restriction.notAllowed does.
+ */
+public class TurnRestrictions {
+	private static final long EMPTY = -1;
+
+	private final long[] table;
+	private final int mask;
+	private int size;
+	// nodes with at least one prohibited turn.
+	private final boolean[] restricted;
+
+	public TurnRestrictions(RoutingGraph graph, Collection<List<Restriction>> restrictions) {
+		long[] pairs = new long[16];
+		int count = 0;
+		for (List<Restriction> rests : restrictions) {
+			for (Restriction r : rests) {
+				if (r.prev == null || r.curr == null || r.next == null || r.prevRd == null || r.nextRd == null)
+					continue;
+				int node = r.curr.index;
+				for (int i = graph.reverseOffsets[node]; i < graph.reverseOffsets[node + 1]; i++) {
+					int in = graph.reverseEdges[i];
+					if (graph.nodes[graph.sources[in]] != r.prev || !graph.roadTable[graph.roads[in]].equals(r.prevRd))
+						continue;
+					for (int out = graph.offsets[node]; out < graph.offsets[node + 1]; out++) {
+						if (graph.nodes[graph.targets[out]] != r.next || !graph.roadTable[graph.roads[out]].equals(r.nextRd))
+							continue;
+						if (count == pairs.length) pairs = Arrays.copyOf(pairs, 2 * count);
+						pairs[count++] = key(in, out);
+					}
+				}
+			}
+		}
+
+		// at most half full, so probe sequences stay short.
+		int capacity = Integer.highestOneBit(Math.max(1, count)) << 2;
+		table = new long[capacity];
+		mask = capacity - 1;
+		Arrays.fill(table, EMPTY);
+		restricted = new boolean[graph.size()];
+		for (int i = 0; i < count; i++) {
+			add(pairs[i]);
+			restricted[graph.targets[(int) (pairs[i] >>> 32)]] = true;
+		}
+	}
+
+	/**
+	 * @return true if turning from edge in onto edge out is prohibited. Either
+	 *         may be -1, for the start or end of a route, which is always
+	 *         allowed.
+	 */
+	public boolean isProhibited(int in, int out) {
+		if (size == 0 || in < 0 || out < 0) return false;
+		long key = key(in, out);
+		for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+			if (table[slot] == key) return true;
+			if (table[slot] == EMPTY) return false;
+		}
+	}
+
+	/**
+	 * @return true if any turn at node is prohibited. Otherwise every way of
+	 *         arriving at it can leave it the same ways.
+	 */
+	public boolean isRestricted(int node) {
+		return restricted[node];
+	}
+
+	/**
+	 * @return the number of prohibited edge pairs.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void add(long key) {
+		int slot = slot(key);
+		while (table[slot] != EMPTY) {
+			if (table[slot] == key) return;
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = key;
+		size++;
+	}
+
+	private static long key(int in, int out) {
+		return ((long) in << 32) | out;
+	}
+
+	private int slot(long key) {
+		// fibonacci hashing spreads the clustered edge numbers over the table.
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+}